@@ -0,0 +1,301 @@
+package com.ray.qjc.common.utils;
+
+import com.ray.qjc.common.api.APIResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ClassName FtpAsyncClient
+ * @Description FtpUtil的异步封装，所有操作返回CompletableFuture
+ * 运行在JDK 21及以上时使用虚拟线程，大量请求排队等待连接不会占用系统线程；否则使用有界线程池
+ * 同时执行的操作数不超过连接池每个服务器的最大连接数，排队的操作不会因为借连接超时而失败；
+ * 合并、复制、移动要再借一个连接边读边写，占用两个名额
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpAsyncClient implements Closeable {
+    //有界线程池的默认队列长度
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private final FtpClientPool pool;
+    private final FtpServerKey key;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int concurrency;
+
+    /**
+     * 使用默认连接池
+     *
+     * @param key ftp服务器
+     */
+    public FtpAsyncClient(FtpServerKey key) {
+        this(FtpClientPool.getDefault(), key);
+    }
+
+    /**
+     * @param pool 连接池
+     * @param key  ftp服务器
+     */
+    public FtpAsyncClient(FtpClientPool pool, FtpServerKey key) {
+        this(pool, key, pool.getConfig().getMaxActivePerKey(), DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param pool          连接池
+     * @param key           ftp服务器
+     * @param concurrency   同时执行的操作数，不应超过连接池每个服务器的最大连接数
+     * @param queueCapacity 不支持虚拟线程时有界线程池的队列长度，队列满时返回的future直接失败
+     */
+    public FtpAsyncClient(FtpClientPool pool, FtpServerKey key, int concurrency, int queueCapacity) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("并发数必须大于0");
+        }
+        this.pool = pool;
+        this.key = key;
+        this.permits = new Semaphore(concurrency, true);
+        this.concurrency = concurrency;
+        this.executor = newExecutor(concurrency, queueCapacity);
+    }
+
+    /**
+     * JDK 21及以上通过反射创建虚拟线程执行器，源码保持JDK 1.8兼容
+     *
+     * @param concurrency
+     * @param queueCapacity
+     * @return
+     */
+    private static ExecutorService newExecutor(int concurrency, int queueCapacity) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.debug("当前JDK不支持虚拟线程，使用有界线程池");
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+            Thread t = new Thread(r, "ftp-async-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 断点续传上传本地文件
+     *
+     * @param file
+     * @param remote 远程文件绝对路径
+     * @return
+     */
+    public CompletableFuture<APIResponse> upload(File file, String remote) {
+        return execute(conn -> FtpUtil.upload(conn, file, remote));
+    }
+
+    /**
+     * 上传输入流，完成后关闭输入流
+     *
+     * @param inputStream
+     * @param fileName       保存文件名称
+     * @param remoteFilePath 远程文件绝对路径
+     * @return
+     */
+    public CompletableFuture<Boolean> uploadFile(InputStream inputStream, String fileName, String remoteFilePath) {
+        return execute(conn -> FtpUtil.uploadFile(inputStream, conn, fileName, remoteFilePath));
+    }
+
+    /**
+     * 断点续传下载到本地文件
+     *
+     * @param remoteFilePath
+     * @param localFile
+     * @return
+     */
+    public CompletableFuture<Boolean> download(String remoteFilePath, File localFile) {
+        return execute(conn -> FtpUtil.downloadFile(conn, remoteFilePath, localFile));
+    }
+
+    /**
+     * 列出目录
+     *
+     * @param dirPath 目录绝对路径
+     * @return
+     */
+    public CompletableFuture<List<FTPFile>> list(String dirPath) {
+        return execute(conn -> {
+            List<FTPFile> files = new ArrayList<>();
+            try (FtpFileIterator iterator = FtpUtil.iterateRemoteFiles(conn, dirPath)) {
+                iterator.forEachRemaining(files::add);
+            }
+            return files;
+        });
+    }
+
+    /**
+     * 重命名
+     *
+     * @param oldName  原文件名
+     * @param filePath 新文件绝对路径
+     * @return
+     */
+    public CompletableFuture<Boolean> rename(String oldName, String filePath) {
+        return execute(conn -> FtpUtil.renameFile(conn, oldName, filePath));
+    }
+
+    /**
+     * 删除文件
+     *
+     * @param filePath
+     * @return
+     */
+    public CompletableFuture<Boolean> delete(String filePath) {
+        return execute(conn -> FtpUtil.deleteRemoteFile(conn, filePath));
+    }
+
+    /**
+     * 删除空目录
+     *
+     * @param dirPath
+     * @return
+     */
+    public CompletableFuture<Boolean> deleteDir(String dirPath) {
+        return execute(conn -> FtpUtil.deleteRemoteDir(conn, dirPath));
+    }
+
+    /**
+     * 合并分片文件
+     *
+     * @param remotePath
+     * @param nameList
+     * @param totalSize
+     * @return
+     */
+    public CompletableFuture<Boolean> merge(String remotePath, List<String> nameList, long totalSize) {
+        return execute(conn -> FtpUtil.mergeFiles(conn, remotePath, nameList, totalSize), 2);
+    }
+
+    /**
+     * 复制文件
+     *
+     * @param sourcePath 源文件绝对路径
+     * @param targetPath 目标目录，取最后一个/之前的部分
+     * @return
+     */
+    public CompletableFuture<Boolean> copy(String sourcePath, String targetPath) {
+        return execute(conn -> FtpUtil.copyFile(conn, sourcePath, targetPath), 2);
+    }
+
+    /**
+     * 移动文件，重命名失败时改为复制后删除
+     *
+     * @param sourcePath 源文件绝对路径
+     * @param targetPath 目标目录，取最后一个/之前的部分
+     * @return
+     */
+    public CompletableFuture<Boolean> move(String sourcePath, String targetPath) {
+        return execute(conn -> FtpUtil.moveFile(conn, sourcePath, targetPath), 2);
+    }
+
+    /**
+     * 在连接池的连接上异步执行任意操作，操作抛出异常时连接会被销毁
+     *
+     * @param call
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<T> execute(FtpCall<T> call) {
+        return execute(call, 1);
+    }
+
+    /**
+     * @param connections 操作要用的连接数，合并、复制时再借的连接也要占用名额，
+     *                    否则满负荷时再借连接要等到连接池超时才改为单连接处理
+     */
+    private <T> CompletableFuture<T> execute(FtpCall<T> call, int connections) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        //并发数小于连接数时最多占用全部名额，不会永远等待
+        int required = Math.min(connections, concurrency);
+        try {
+            executor.execute(() -> run(call, future, required));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private <T> void run(FtpCall<T> call, CompletableFuture<T> future, int required) {
+        try {
+            permits.acquire(required);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return;
+        }
+        try {
+            future.complete(callWithConnection(pool, key, call));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            permits.release(required);
+        }
+    }
+
+    /**
+     * 借一个连接执行操作，正常结束归还连接，抛出异常时销毁连接
+     *
+     * @param pool
+     * @param key
+     * @param call
+     * @param <T>
+     * @return
+     * @throws Exception
+     */
+    static <T> T callWithConnection(FtpClientPool pool, FtpServerKey key, FtpCall<T> call) throws Exception {
+        FtpConnection conn = pool.borrow(key);
+        T result;
+        try {
+            result = call.call(conn);
+        } catch (Throwable e) {
+            pool.invalidate(conn);
+            throw e;
+        }
+        pool.release(conn);
+        return result;
+    }
+
+    /**
+     * 关闭执行器，已提交的操作继续执行完
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * 在连接上执行的操作
+     *
+     * @param <T>
+     */
+    @FunctionalInterface
+    public interface FtpCall<T> {
+        T call(FtpConnection conn) throws Exception;
+    }
+}
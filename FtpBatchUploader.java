@@ -0,0 +1,232 @@
+package com.ray.qjc.common.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ClassName FtpBatchUploader
+ * @Description 批量上传大量小文件：按目录分组，每个连接只设置一次被动模式、传输类型和编码，
+ * 每个目录只创建/切换一次，组内文件用相对文件名连续STOR；可以用连接池的多个连接并行上传不同分组
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpBatchUploader {
+    //每个分组最多的文件数，同一目录文件很多时拆成多组以便并行
+    public static final int MAX_GROUP_SIZE = 256;
+
+    private FtpBatchUploader() {
+    }
+
+    /**
+     * 在一个连接上批量上传，完成后关闭所有输入流
+     *
+     * @param ftpClient
+     * @param entries
+     * @return 远程路径 -> 是否上传成功，顺序和entries一致
+     */
+    public static Map<String, Boolean> upload(FTPClient ftpClient, Collection<Entry> entries) {
+        Map<String, Boolean> result = newResult(entries);
+        for (List<Entry> group : group(entries)) {
+            if (!uploadGroup(ftpClient, group, result)) {
+                //连接已断开，剩下的分组都失败
+                break;
+            }
+        }
+        closeAll(entries);
+        return result;
+    }
+
+    /**
+     * 使用连接池的多个连接并行批量上传，完成后关闭所有输入流
+     *
+     * @param pool        连接池
+     * @param key         ftp服务器
+     * @param entries
+     * @param parallelism 并行连接数
+     * @return 远程路径 -> 是否上传成功，顺序和entries一致
+     */
+    public static Map<String, Boolean> upload(FtpClientPool pool, FtpServerKey key, Collection<Entry> entries, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("并行数必须大于0");
+        }
+        Map<String, Boolean> result = newResult(entries);
+        Queue<List<Entry>> groups = new ConcurrentLinkedQueue<>(group(entries));
+        int workers = Math.min(parallelism, groups.size());
+        if (workers == 0) {
+            return result;
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "ftp-batch-upload-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(workers);
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> drain(pool, key, groups, result)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            log.error("批量上传线程异常", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            closeAll(entries);
+        }
+        return result;
+    }
+
+    private static void drain(FtpClientPool pool, FtpServerKey key, Queue<List<Entry>> groups, Map<String, Boolean> result) {
+        FtpConnection conn = null;
+        List<Entry> group;
+        while ((group = groups.poll()) != null) {
+            if (conn == null) {
+                try {
+                    conn = pool.borrow(key);
+                } catch (IOException e) {
+                    log.error("批量上传获取ftp连接失败：{}", e.getMessage());
+                    continue;
+                }
+            }
+            if (!uploadGroup(conn, group, result)) {
+                pool.invalidate(conn);
+                conn = null;
+            }
+        }
+        if (conn != null) {
+            pool.release(conn);
+        }
+    }
+
+    /**
+     * 上传同一目录下的一组文件
+     *
+     * @param ftpClient
+     * @param group
+     * @param result
+     * @return 连接是否仍然可用
+     */
+    private static boolean uploadGroup(FTPClient ftpClient, List<Entry> group, Map<String, Boolean> result) {
+        String remotePath = group.get(0).getRemotePath();
+        try {
+            prepare(ftpClient);
+            if (!FtpUtil.createDirecroty(remotePath, ftpClient)) {
+                return true;
+            }
+        } catch (IOException e) {
+            log.error("批量上传创建目录【{}】失败", remotePath, e);
+            return ftpClient.isConnected();
+        }
+        try {
+            for (Entry entry : group) {
+                String path = entry.getRemotePath();
+                String name = path.substring(path.lastIndexOf("/") + 1);
+                boolean flag = ftpClient.storeFile(FtpUtil.encodeName(ftpClient, name),
+                        FtpRateLimiter.throttle(ftpClient, entry.getInputStream()));
+                if (!flag) {
+                    log.error("批量上传【{}】失败：{}", path, ftpClient.getReplyString());
+                }
+                result.put(path, flag);
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("批量上传目录【{}】下的文件失败", remotePath, e);
+            return false;
+        } finally {
+            try {
+                FtpUtil.invalidateMetadata(ftpClient, remotePath);
+            } catch (IOException e) {
+                log.error("清除目录缓存失败", e);
+            }
+        }
+    }
+
+    /**
+     * 设置会话状态，连接池的连接已经是二进制传输时不再发送TYPE，已经协商过编码时不再发送OPTS UTF8
+     *
+     * @param ftpClient
+     * @throws IOException
+     */
+    private static void prepare(FTPClient ftpClient) throws IOException {
+        ftpClient.enterLocalPassiveMode();
+        if (!(ftpClient instanceof FtpConnection) || ((FtpConnection) ftpClient).getFileType() != FTP.BINARY_FILE_TYPE) {
+            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+        }
+        FtpUtil.setFtpEncoding(ftpClient);
+    }
+
+    /**
+     * 按目录分组，保持目录第一次出现的顺序，每组不超过MAX_GROUP_SIZE
+     *
+     * @param entries
+     * @return
+     */
+    private static List<List<Entry>> group(Collection<Entry> entries) {
+        Map<String, List<Entry>> byDir = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            String path = entry.getRemotePath();
+            byDir.computeIfAbsent(path.substring(0, path.lastIndexOf("/") + 1), k -> new ArrayList<>()).add(entry);
+        }
+        List<List<Entry>> groups = new ArrayList<>();
+        for (List<Entry> list : byDir.values()) {
+            for (int i = 0; i < list.size(); i += MAX_GROUP_SIZE) {
+                groups.add(list.subList(i, Math.min(i + MAX_GROUP_SIZE, list.size())));
+            }
+        }
+        return groups;
+    }
+
+    private static Map<String, Boolean> newResult(Collection<Entry> entries) {
+        Map<String, Boolean> result = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            result.put(entry.getRemotePath(), false);
+        }
+        //多个线程只修改已存在的key，不改变结构
+        return Collections.synchronizedMap(result);
+    }
+
+    private static void closeAll(Collection<Entry> entries) {
+        for (Entry entry : entries) {
+            try {
+                entry.getInputStream().close();
+            } catch (IOException e) {
+                log.error("ftp关闭输入流时失败！", e);
+            }
+        }
+    }
+
+    /**
+     * 待上传的文件
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private final InputStream inputStream;
+        //远程文件绝对路径
+        private final String remotePath;
+    }
+}
@@ -0,0 +1,279 @@
+package com.ray.qjc.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ClassName FtpBulkDeleter
+ * @Description 批量删除：文件由多个连接并行DELE，目录按层级从深到浅并行RMD，逐条记录失败原因
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpBulkDeleter {
+    //默认并行连接数
+    public static final int DEFAULT_PARALLELISM = 4;
+    //deleteAll超过该数量才并行删除
+    public static final int PARALLEL_THRESHOLD = 64;
+
+    private FtpBulkDeleter() {
+    }
+
+    /**
+     * 使用默认连接池删除整个目录树
+     *
+     * @param key         ftp服务器
+     * @param rootDir     根目录绝对路径
+     * @param includeRoot 是否删除根目录本身
+     * @param parallelism 并行连接数
+     * @return
+     * @throws IOException 遍历目录失败
+     */
+    public static DeleteResult deleteTree(FtpServerKey key, String rootDir, boolean includeRoot, int parallelism) throws IOException {
+        return deleteTree(FtpClientPool.getDefault(), key, rootDir, includeRoot, parallelism);
+    }
+
+    /**
+     * 删除整个目录树
+     *
+     * @param pool        连接池
+     * @param key         ftp服务器
+     * @param rootDir     根目录绝对路径
+     * @param includeRoot 是否删除根目录本身
+     * @param parallelism 并行连接数
+     * @return
+     * @throws IOException 遍历目录失败
+     */
+    public static DeleteResult deleteTree(FtpClientPool pool, FtpServerKey key, String rootDir, boolean includeRoot,
+                                          int parallelism) throws IOException {
+        List<String> dirList = new ArrayList<>();
+        List<String> fileList = new ArrayList<>();
+        for (FtpTreeWalker.Entry entry : FtpTreeWalker.walk(pool, key, rootDir, parallelism)) {
+            if (entry.isDirectory()) {
+                dirList.add(entry.getPath());
+            } else {
+                fileList.add(entry.getPath());
+            }
+        }
+        if (includeRoot) {
+            dirList.add(rootDir);
+        }
+        return delete(pool, key, dirList, fileList, parallelism);
+    }
+
+    /**
+     * 批量删除文件和目录，先删除所有文件，再按目录层级从深到浅删除目录
+     *
+     * @param pool        连接池
+     * @param key         ftp服务器
+     * @param dirList     目录绝对路径
+     * @param fileList    文件绝对路径
+     * @param parallelism 并行连接数
+     * @return
+     */
+    public static DeleteResult delete(FtpClientPool pool, FtpServerKey key, List<String> dirList, List<String> fileList, int parallelism) {
+        return delete(pool, key, null, dirList, fileList, parallelism);
+    }
+
+    /**
+     * 批量删除
+     *
+     * @param pool
+     * @param key
+     * @param fallback    连接池借不到连接时用来删除剩余路径的连接，可以为空
+     * @param dirList
+     * @param fileList
+     * @param parallelism
+     * @return
+     */
+    static DeleteResult delete(FtpClientPool pool, FtpServerKey key, FTPClient fallback,
+                               List<String> dirList, List<String> fileList, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("并行数必须大于0");
+        }
+        DeleteResult result = new DeleteResult();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "ftp-bulk-delete-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            if (fileList != null && !fileList.isEmpty()) {
+                runPhase(executor, pool, key, fallback, fileList, false, parallelism, result);
+            }
+            if (dirList != null && !dirList.isEmpty()) {
+                //按层级从深到浅，保证子目录先于父目录删除
+                TreeMap<Integer, List<String>> levels = new TreeMap<>(Collections.reverseOrder());
+                for (String dir : dirList) {
+                    levels.computeIfAbsent(depth(dir), k -> new ArrayList<>()).add(dir);
+                }
+                for (List<String> level : levels.values()) {
+                    List<String> dirs = new ArrayList<>(level.size());
+                    for (String dir : level) {
+                        if (result.hasFailureUnder(dir)) {
+                            result.fail(dir, "子路径删除失败，跳过");
+                        } else {
+                            dirs.add(dir);
+                        }
+                    }
+                    runPhase(executor, pool, key, fallback, dirs, true, parallelism, result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("批量删除被中断");
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("批量删除完成，成功{}个，失败{}个", result.getDeletedCount(), result.getFailures().size());
+        return result;
+    }
+
+    /**
+     * 多个连接并行删除同一批路径，每个连接从共享队列中取路径
+     */
+    private static void runPhase(ExecutorService executor, FtpClientPool pool, FtpServerKey key, FTPClient fallback,
+                                 List<String> paths, boolean dir, int parallelism, DeleteResult result) throws InterruptedException {
+        if (paths.isEmpty()) {
+            return;
+        }
+        Queue<String> queue = new ConcurrentLinkedQueue<>(paths);
+        int workers = Math.min(parallelism, paths.size());
+        List<Future<?>> futures = new ArrayList<>(workers);
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(() -> drain(pool, key, queue, dir, result)));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                log.error("批量删除线程异常", e.getCause());
+            }
+        }
+        //借不到连接时剩下的路径
+        String path;
+        while ((path = queue.poll()) != null) {
+            if (fallback == null) {
+                result.fail(path, "没有可用的ftp连接");
+            } else {
+                deleteOne(fallback, path, dir, result);
+            }
+        }
+    }
+
+    private static void drain(FtpClientPool pool, FtpServerKey key, Queue<String> queue, boolean dir, DeleteResult result) {
+        FtpConnection conn;
+        try {
+            conn = pool.borrow(key);
+        } catch (IOException e) {
+            log.warn("批量删除获取ftp连接失败：{}", e.getMessage());
+            return;
+        }
+        String path;
+        while ((path = queue.poll()) != null) {
+            if (deleteOne(conn, path, dir, result) || isAlive(conn)) {
+                continue;
+            }
+            //连接已断开，换一个连接继续
+            pool.invalidate(conn);
+            try {
+                conn = pool.borrow(key);
+            } catch (IOException e) {
+                log.warn("批量删除获取ftp连接失败：{}", e.getMessage());
+                return;
+            }
+        }
+        pool.release(conn);
+    }
+
+    private static boolean deleteOne(FTPClient ftpClient, String path, boolean dir, DeleteResult result) {
+        boolean flag = dir ? FtpUtil.deleteRemoteDir(ftpClient, path) : FtpUtil.deleteRemoteFile(ftpClient, path);
+        if (flag) {
+            result.deleted();
+        } else {
+            result.fail(path, ftpClient.getReplyString() == null ? "删除失败" : ftpClient.getReplyString().trim());
+        }
+        return flag;
+    }
+
+    private static boolean isAlive(FTPClient ftpClient) {
+        try {
+            return ftpClient.sendNoOp();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int depth(String path) {
+        int depth = 0;
+        for (int i = 0; i < path.length(); i++) {
+            if (path.charAt(i) == '/' && i < path.length() - 1) {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * 批量删除结果
+     */
+    public static class DeleteResult {
+        private final AtomicInteger deletedCount = new AtomicInteger();
+        //路径 -> 失败原因
+        private final Map<String, String> failures = new LinkedHashMap<>();
+
+        public int getDeletedCount() {
+            return deletedCount.get();
+        }
+
+        public Map<String, String> getFailures() {
+            synchronized (failures) {
+                return new LinkedHashMap<>(failures);
+            }
+        }
+
+        public boolean isSuccess() {
+            synchronized (failures) {
+                return failures.isEmpty();
+            }
+        }
+
+        private void deleted() {
+            deletedCount.incrementAndGet();
+        }
+
+        private void fail(String path, String reason) {
+            synchronized (failures) {
+                failures.put(path, reason);
+            }
+        }
+
+        private boolean hasFailureUnder(String dir) {
+            String prefix = dir.endsWith("/") ? dir : dir + "/";
+            synchronized (failures) {
+                for (String path : failures.keySet()) {
+                    if (path.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
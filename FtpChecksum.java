@@ -0,0 +1,285 @@
+package com.ray.qjc.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * @ClassName FtpChecksum
+ * @Description 文件校验：传输时边读边计算摘要，和服务器HASH/XMD5/MD5/XCRC命令返回的值比较，
+ * 服务器不支持时和客户端上传的md5文件(文件名_md5值)比较
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpChecksum {
+    //md5文件：文件名_32位md5，可以带扩展名
+    private static final Pattern SIDECAR = Pattern.compile("^(.+)_([0-9a-fA-F]{32})(\\.[^.]*)?$");
+
+    public enum Algorithm {
+        MD5("MD5", 32),
+        CRC32("CRC32", 8);
+
+        //HASH命令使用的算法名
+        private final String hashName;
+        private final int hexLength;
+
+        Algorithm(String hashName, int hexLength) {
+            this.hashName = hashName;
+            this.hexLength = hexLength;
+        }
+    }
+
+    private FtpChecksum() {
+    }
+
+    /**
+     * 服务器支持的校验算法，优先MD5，和md5文件一致；按FEAT判断，结果由FTPClient缓存在连接上
+     *
+     * @param ftpClient
+     * @return 都不支持返回null
+     * @throws IOException
+     */
+    public static Algorithm serverAlgorithm(FTPClient ftpClient) throws IOException {
+        if (supports(ftpClient, Algorithm.MD5)) {
+            return Algorithm.MD5;
+        }
+        if (supports(ftpClient, Algorithm.CRC32)) {
+            return Algorithm.CRC32;
+        }
+        return null;
+    }
+
+    /**
+     * 服务器是否能计算指定算法的校验值
+     *
+     * @param ftpClient
+     * @param algorithm
+     * @return
+     * @throws IOException
+     */
+    public static boolean supports(FTPClient ftpClient, Algorithm algorithm) throws IOException {
+        if (hashSupports(ftpClient, algorithm)) {
+            return true;
+        }
+        return algorithm == Algorithm.MD5
+                ? ftpClient.hasFeature("XMD5") || ftpClient.hasFeature("MD5")
+                : ftpClient.hasFeature("XCRC");
+    }
+
+    /**
+     * 让服务器计算文件的校验值
+     *
+     * @param ftpClient
+     * @param path      已经转换编码的路径
+     * @param algorithm
+     * @return 小写十六进制，服务器不支持或计算失败返回null
+     * @throws IOException
+     */
+    public static String serverHash(FTPClient ftpClient, String path, Algorithm algorithm) throws IOException {
+        int reply;
+        if (hashSupports(ftpClient, algorithm)) {
+            if (!FTPReply.isPositiveCompletion(ftpClient.sendCommand("OPTS HASH", algorithm.hashName))) {
+                return null;
+            }
+            reply = ftpClient.sendCommand("HASH", path);
+            if (!FTPReply.isPositiveCompletion(reply)) {
+                log.warn("服务器计算校验值失败：{}", ftpClient.getReplyString());
+                return null;
+            }
+            return hashField(ftpClient.getReplyString(), algorithm.hexLength);
+        } else if (algorithm == Algorithm.MD5 && ftpClient.hasFeature("XMD5")) {
+            reply = ftpClient.sendCommand("XMD5", path);
+        } else if (algorithm == Algorithm.MD5 && ftpClient.hasFeature("MD5")) {
+            reply = ftpClient.sendCommand("MD5", path);
+        } else if (algorithm == Algorithm.CRC32 && ftpClient.hasFeature("XCRC")) {
+            reply = ftpClient.sendCommand("XCRC", path);
+        } else {
+            return null;
+        }
+        if (!FTPReply.isPositiveCompletion(reply)) {
+            log.warn("服务器计算校验值失败：{}", ftpClient.getReplyString());
+            return null;
+        }
+        return extractHex(ftpClient.getReplyString(), algorithm.hexLength);
+    }
+
+    private static boolean hashSupports(FTPClient ftpClient, Algorithm algorithm) throws IOException {
+        String value = ftpClient.featureValue("HASH");
+        if (value == null) {
+            return false;
+        }
+        //格式如 SHA-1;SHA-256*;MD5，*表示当前算法
+        for (String name : value.split(";")) {
+            if (name.replace("*", "").trim().equalsIgnoreCase(algorithm.hashName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * HASH的回复按字段位置解析：213 算法 起止范围 校验值 文件名，文件名中可能有空格
+     * 不能按长度匹配，CRC32时范围的结束位置也可能是8位数字
+     */
+    private static String hashField(String reply, int hexLength) {
+        String[] fields = reply.trim().split(" ", 5);
+        if (fields.length < 4 || !fields[3].matches("[0-9a-fA-F]{" + hexLength + "}")) {
+            log.warn("无法解析服务器的校验值：{}", reply.trim());
+            return null;
+        }
+        return fields[3].toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * XMD5、MD5、XCRC的回复格式各服务器不同，如 250 hex、251 name hex，取长度匹配的十六进制字段
+     */
+    private static String extractHex(String reply, int hexLength) {
+        Matcher matcher = Pattern.compile("(?<![0-9a-fA-F])[0-9a-fA-F]{" + hexLength + "}(?![0-9a-fA-F])")
+                .matcher(reply.substring(Math.min(4, reply.length())));
+        return matcher.find() ? matcher.group().toLowerCase(Locale.ROOT) : null;
+    }
+
+    /**
+     * 计算本地文件前length字节的校验值，用于断点续传时补上已传输部分
+     *
+     * @param file
+     * @param length
+     * @param algorithm
+     * @return
+     * @throws IOException
+     */
+    public static Digest digestFile(File file, long length, Algorithm algorithm) throws IOException {
+        Digest digest = new Digest(algorithm);
+        if (length <= 0) {
+            return digest;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(FtpUtil.getBufferSize());
+            long position = 0;
+            while (position < length) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), length - position));
+                int n = channel.read(buffer, position);
+                if (n < 0) {
+                    break;
+                }
+                buffer.flip();
+                digest.update(buffer);
+                position += n;
+            }
+        } finally {
+            raf.close();
+        }
+        return digest;
+    }
+
+    /**
+     * 从文件名中解析md5文件
+     *
+     * @param names 目录下的文件名
+     * @return 文件名(不含_md5部分) -> 小写md5
+     */
+    public static Map<String, String> sidecarMd5(Collection<String> names) {
+        Map<String, String> index = new HashMap<>(8);
+        for (String name : names) {
+            Matcher matcher = SIDECAR.matcher(name);
+            if (matcher.matches()) {
+                index.put(matcher.group(1), matcher.group(2).toLowerCase(Locale.ROOT));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 查找文件对应的md5，先按完整文件名，再按去掉扩展名的文件名
+     *
+     * @param sidecars sidecarMd5的结果
+     * @param fileName
+     * @return 没有返回null
+     */
+    public static String expectedMd5(Map<String, String> sidecars, String fileName) {
+        String md5 = sidecars.get(fileName);
+        int index = fileName.lastIndexOf('.');
+        if (md5 == null && index > 0) {
+            md5 = sidecars.get(fileName.substring(0, index));
+        }
+        return md5;
+    }
+
+    /**
+     * 传输过程中增量计算的校验值
+     */
+    public static class Digest {
+        private final Algorithm algorithm;
+        private final MessageDigest messageDigest;
+        private final CRC32 crc32;
+
+        public Digest(Algorithm algorithm) {
+            this.algorithm = algorithm;
+            if (algorithm == Algorithm.MD5) {
+                try {
+                    this.messageDigest = MessageDigest.getInstance("MD5");
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+                this.crc32 = null;
+            } else {
+                this.messageDigest = null;
+                this.crc32 = new CRC32();
+            }
+        }
+
+        public Algorithm getAlgorithm() {
+            return algorithm;
+        }
+
+        public void update(byte[] bytes, int offset, int length) {
+            if (messageDigest != null) {
+                messageDigest.update(bytes, offset, length);
+            } else {
+                crc32.update(bytes, offset, length);
+            }
+        }
+
+        public void update(ByteBuffer buffer) {
+            if (messageDigest != null) {
+                messageDigest.update(buffer);
+            } else {
+                crc32.update(buffer);
+            }
+        }
+
+        /**
+         * 小写十六进制，调用后MD5会重置
+         *
+         * @return
+         */
+        public String hex() {
+            if (messageDigest == null) {
+                return String.format("%08x", crc32.getValue());
+            }
+            StringBuilder sb = new StringBuilder(32);
+            for (byte b : messageDigest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,457 @@
+package com.ray.qjc.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ClassName FtpChunkUploader
+ * @Description 大文件分片并行上传：按范围切分本地文件，多个连接并行上传分片，再按顺序合并并校验大小
+ * 指定上传日志时记录已完成的分片，服务重启后再次调用只上传缺少的分片
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpChunkUploader {
+    //默认分片大小
+    public static final long DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024L;
+
+    private FtpChunkUploader() {
+    }
+
+    /**
+     * 分片文件名，和合并文件在同一目录下
+     *
+     * @param fileName 合并后的文件名
+     * @param index    分片序号
+     * @return
+     */
+    public static String chunkName(String fileName, int index) {
+        return fileName + ".part" + index;
+    }
+
+    /**
+     * 使用默认连接池分片并行上传
+     *
+     * @param key         ftp服务器
+     * @param localFile   本地文件
+     * @param remotePath  远程文件绝对路径
+     * @param chunkSize   分片大小
+     * @param parallelism 并行连接数
+     * @return
+     */
+    public static boolean upload(FtpServerKey key, File localFile, String remotePath, long chunkSize, int parallelism) {
+        return upload(FtpClientPool.getDefault(), key, localFile, remotePath, chunkSize, parallelism, null);
+    }
+
+    /**
+     * 分片并行上传，不记录上传日志
+     *
+     * @param pool        连接池
+     * @param key         ftp服务器
+     * @param localFile   本地文件
+     * @param remotePath  远程文件绝对路径
+     * @param chunkSize   分片大小
+     * @param parallelism 并行连接数
+     * @return
+     */
+    public static boolean upload(FtpClientPool pool, FtpServerKey key, File localFile, String remotePath, long chunkSize, int parallelism) {
+        return upload(pool, key, localFile, remotePath, chunkSize, parallelism, null);
+    }
+
+    /**
+     * 分片并行上传，上传日志中已完成且服务器上仍然完整的分片不再上传，全部完成后删除日志
+     *
+     * @param pool        连接池
+     * @param key         ftp服务器
+     * @param localFile   本地文件
+     * @param remotePath  远程文件绝对路径
+     * @param chunkSize   分片大小
+     * @param parallelism 并行连接数
+     * @param journalFile 本地上传日志，为空时不记录
+     * @return
+     */
+    public static boolean upload(FtpClientPool pool, FtpServerKey key, File localFile, String remotePath, long chunkSize,
+                                 int parallelism, File journalFile) {
+        if (chunkSize <= 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("分片大小和并行数必须大于0");
+        }
+        String dir = remotePath.substring(0, remotePath.lastIndexOf("/"));
+        String fileName = remotePath.substring(remotePath.lastIndexOf("/") + 1);
+        long totalSize = localFile.length();
+        int chunkCount = (int) Math.max(1, (totalSize + chunkSize - 1) / chunkSize);
+
+        List<String> nameList = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            nameList.add(chunkName(fileName, i));
+        }
+
+        FtpUploadJournal journal = null;
+        if (journalFile != null) {
+            try {
+                journal = FtpUploadJournal.open(journalFile, localFile, remotePath, chunkSize);
+            } catch (IOException e) {
+                log.error("打开上传日志【{}】失败", journalFile.getName(), e);
+                return false;
+            }
+        }
+        try {
+            Set<Integer> completed = new HashSet<>();
+            FtpConnection conn = null;
+            try {
+                conn = pool.borrow(key);
+                if (!FtpUtil.createDirecroty(remotePath, conn)) {
+                    return false;
+                }
+                if (journal != null) {
+                    if (journal.isMerged() && finishMerged(conn, remotePath, nameList, totalSize)) {
+                        journal.delete();
+                        journal = null;
+                        return true;
+                    }
+                    completed = verifyCompleted(conn, dir, nameList, journal);
+                }
+            } catch (IOException e) {
+                log.error("准备分片上传【{}】失败", remotePath, e);
+                if (conn != null) {
+                    pool.invalidate(conn);
+                    conn = null;
+                }
+                return false;
+            } finally {
+                if (conn != null) {
+                    pool.release(conn);
+                }
+            }
+
+            if (!uploadChunks(pool, key, localFile, dir, nameList, chunkSize, parallelism, journal, completed)) {
+                return false;
+            }
+            if (!mergeAndVerify(pool, key, remotePath, nameList, totalSize, journal)) {
+                return false;
+            }
+            if (journal != null) {
+                journal.delete();
+                journal = null;
+            }
+            return true;
+        } finally {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    log.error("关闭上传日志失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 核对日志中已完成的分片：服务器上不存在或大小不一致的重新上传，服务器能计算md5时再比较md5
+     *
+     * @param conn
+     * @param dir
+     * @param nameList
+     * @param journal
+     * @return 不需要重新上传的分片序号
+     * @throws IOException
+     */
+    private static Set<Integer> verifyCompleted(FtpConnection conn, String dir, List<String> nameList, FtpUploadJournal journal) throws IOException {
+        Set<Integer> completed = new HashSet<>();
+        Map<Integer, FtpUploadJournal.Part> parts = journal.getCompletedParts();
+        if (parts.isEmpty()) {
+            return completed;
+        }
+        Map<String, FTPFile> listing = FtpUtil.listDirectory(conn, dir + "/");
+        boolean md5 = FtpChecksum.supports(conn, FtpChecksum.Algorithm.MD5);
+        for (FtpUploadJournal.Part part : parts.values()) {
+            if (part.getIndex() >= nameList.size()) {
+                continue;
+            }
+            //目录列表按解码后的文件名保存
+            String name = nameList.get(part.getIndex());
+            FTPFile file = listing.get(name);
+            boolean ok = file != null && file.getSize() == part.getLength();
+            if (ok && md5) {
+                ok = part.getMd5().equals(FtpChecksum.serverHash(conn, FtpUtil.normalizePath(FtpUtil.encodeName(conn, dir + "/" + name)),
+                        FtpChecksum.Algorithm.MD5));
+            }
+            if (ok) {
+                completed.add(part.getIndex());
+            } else {
+                log.warn("分片【{}】在服务器上不完整，重新上传", nameList.get(part.getIndex()));
+                journal.forget(part.getIndex());
+            }
+        }
+        log.info("日志中{}个分片已完成，需要上传{}个分片", completed.size(), nameList.size() - completed.size());
+        return completed;
+    }
+
+    /**
+     * 上次已经合并，只是没来得及删除分片和日志：合并后的文件大小正确时删除剩余的分片
+     *
+     * @param conn
+     * @param remotePath
+     * @param nameList
+     * @param totalSize
+     * @return 合并后的文件不完整时返回false，需要重新上传
+     * @throws IOException
+     */
+    private static boolean finishMerged(FtpConnection conn, String remotePath, List<String> nameList, long totalSize) throws IOException {
+        conn.enterLocalPassiveMode();
+        if (FtpUtil.size(conn, remotePath) != totalSize) {
+            return false;
+        }
+        String dir = remotePath.substring(0, remotePath.lastIndexOf("/"));
+        Map<String, FTPFile> listing = FtpUtil.listDirectory(conn, dir + "/");
+        List<String> chunkPaths = new ArrayList<>();
+        for (String name : nameList) {
+            if (listing.containsKey(name)) {
+                chunkPaths.add(dir + "/" + name);
+            }
+        }
+        if (!chunkPaths.isEmpty()) {
+            FtpUtil.deleteAll(conn, null, chunkPaths);
+        }
+        log.info("文件【{}】上次已合并完成，清理剩余分片", remotePath);
+        return true;
+    }
+
+    /**
+     * 并行上传分片
+     *
+     * @param pool
+     * @param key
+     * @param localFile
+     * @param dir
+     * @param nameList
+     * @param chunkSize
+     * @param parallelism
+     * @param journal     上传日志，可以为空
+     * @param completed   已完成不需要上传的分片序号
+     * @return
+     */
+    static boolean uploadChunks(FtpClientPool pool, FtpServerKey key, File localFile, String dir, List<String> nameList,
+                                long chunkSize, int parallelism, FtpUploadJournal journal, Set<Integer> completed) {
+        long totalSize = localFile.length();
+        int remaining = nameList.size() - completed.size();
+        if (remaining <= 0) {
+            return true;
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, remaining), r -> {
+            Thread t = new Thread(r, "ftp-chunk-upload-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(localFile, "r");
+            FileChannel channel = raf.getChannel();
+            List<Future<Boolean>> futures = new ArrayList<>(nameList.size());
+            for (int i = 0; i < nameList.size(); i++) {
+                if (completed.contains(i)) {
+                    continue;
+                }
+                int index = i;
+                String name = nameList.get(i);
+                long offset = i * chunkSize;
+                long length = Math.min(chunkSize, totalSize - offset);
+                futures.add(executor.submit(() -> uploadChunk(pool, key, channel, dir, name, index, offset, length, journal)));
+            }
+            boolean flag = true;
+            for (Future<Boolean> future : futures) {
+                if (!future.get()) {
+                    flag = false;
+                }
+            }
+            return flag;
+        } catch (IOException | ExecutionException e) {
+            log.error("分片上传文件【{}】失败", localFile.getName(), e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    log.error("关闭本地文件失败", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 上传单个分片
+     *
+     * @param pool
+     * @param key
+     * @param channel
+     * @param dir
+     * @param name
+     * @param index
+     * @param offset
+     * @param length
+     * @param journal
+     * @return
+     */
+    private static boolean uploadChunk(FtpClientPool pool, FtpServerKey key, FileChannel channel, String dir, String name,
+                                       int index, long offset, long length, FtpUploadJournal journal) {
+        FtpConnection conn = null;
+        try {
+            conn = pool.borrow(key);
+            conn.enterLocalPassiveMode();
+            conn.setFileType(FTP.BINARY_FILE_TYPE);
+            //切换失败时连接回到根目录，不能把分片存到那里并记为完成，返回失败由下次续传重新上传
+            if (!FtpUtil.changeDirectory(conn, dir)) {
+                log.error("分片【{}】上传失败，无法进入目录【{}】", name, dir);
+                pool.release(conn);
+                return false;
+            }
+            long start = System.nanoTime();
+            FtpChecksum.Digest digest = journal == null ? null : new FtpChecksum.Digest(FtpChecksum.Algorithm.MD5);
+            boolean flag = conn.storeFile(FtpUtil.encodeName(conn, name),
+                    FtpRateLimiter.throttle(conn, new RangeInputStream(channel, offset, length, digest)));
+            FtpUtil.recordTransfer(conn, FtpMetrics.OP_UPLOAD, flag ? length : 0, start, flag);
+            FtpUtil.invalidateMetadata(conn, dir + "/" + name);
+            if (!flag) {
+                log.error("分片【{}】上传失败：{}", name, conn.getReplyString());
+            }
+            pool.release(conn);
+            conn = null;
+            if (flag && journal != null) {
+                journal.recordPart(index, offset, length, digest.hex());
+            }
+            return flag;
+        } catch (IOException e) {
+            log.error("分片【{}】上传异常", name, e);
+            if (conn != null) {
+                pool.invalidate(conn);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 按顺序合并分片，校验合并后的大小，最后删除分片
+     *
+     * @param pool
+     * @param key
+     * @param remotePath
+     * @param nameList
+     * @param totalSize
+     * @param journal    上传日志，可以为空
+     * @return
+     */
+    static boolean mergeAndVerify(FtpClientPool pool, FtpServerKey key, String remotePath, List<String> nameList,
+                                  long totalSize, FtpUploadJournal journal) {
+        String dir = remotePath.substring(0, remotePath.lastIndexOf("/"));
+        String fileName = remotePath.substring(remotePath.lastIndexOf("/") + 1);
+        FtpConnection conn = null;
+        try {
+            conn = pool.borrow(key);
+            //合并是追加写入，先删除可能残留的旧文件
+            FtpUtil.deleteRemoteFile(conn, remotePath);
+            if (!FtpUtil.mergeFiles(conn, remotePath, nameList, totalSize)) {
+                return false;
+            }
+            if (!FtpUtil.changeDirectory(conn, dir)) {
+                log.error("合并后的文件【{}】校验失败，无法进入目录【{}】", remotePath, dir);
+                return false;
+            }
+            FTPFile[] files = conn.listFiles(FtpUtil.encodeName(conn, fileName));
+            if (files.length != 1 || files[0].getSize() != totalSize) {
+                log.error("合并后的文件【{}】大小校验失败", remotePath);
+                return false;
+            }
+            if (journal != null) {
+                journal.recordMerged();
+            }
+            List<String> chunkPaths = new ArrayList<>(nameList.size());
+            for (String name : nameList) {
+                chunkPaths.add(dir + "/" + name);
+            }
+            FtpUtil.deleteAll(conn, null, chunkPaths);
+            return true;
+        } catch (IOException e) {
+            log.error("合并文件【{}】失败", remotePath, e);
+            pool.invalidate(conn);
+            conn = null;
+            return false;
+        } finally {
+            if (conn != null) {
+                pool.release(conn);
+            }
+        }
+    }
+
+    /**
+     * 读取文件指定范围的输入流，多个线程共用一个FileChannel，按位置读取互不影响
+     */
+    static class RangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+        //边读边计算摘要，可以为空
+        private final FtpChecksum.Digest digest;
+
+        RangeInputStream(FileChannel channel, long offset, long length) {
+            this(channel, offset, length, null);
+        }
+
+        RangeInputStream(FileChannel channel, long offset, long length, FtpChecksum.Digest digest) {
+            this.channel = channel;
+            this.position = offset;
+            this.end = offset + length;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int toRead = (int) Math.min(len, end - position);
+            int n = channel.read(ByteBuffer.wrap(b, off, toRead), position);
+            if (n > 0) {
+                position += n;
+                if (digest != null) {
+                    digest.update(b, off, n);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
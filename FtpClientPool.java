@@ -0,0 +1,278 @@
+package com.ray.qjc.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName FtpClientPool
+ * @Description ftp连接池，按 主机 + 端口 + 用户 + 密码 分组复用已登录的连接
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpClientPool {
+    private static volatile FtpClientPool defaultPool;
+
+    private final FtpPoolConfig config;
+    private final Map<FtpServerKey, KeyedPool> pools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    public FtpClientPool(FtpPoolConfig config) {
+        this.config = config;
+        if (config.getTimeBetweenEvictionRunsMillis() > 0) {
+            this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ftp-pool-evictor");
+                t.setDaemon(true);
+                return t;
+            });
+            this.evictor.scheduleWithFixedDelay(this::evict, config.getTimeBetweenEvictionRunsMillis(),
+                    config.getTimeBetweenEvictionRunsMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.evictor = null;
+        }
+    }
+
+    /**
+     * 获取默认连接池
+     *
+     * @return
+     */
+    public static FtpClientPool getDefault() {
+        if (defaultPool == null) {
+            synchronized (FtpClientPool.class) {
+                if (defaultPool == null) {
+                    defaultPool = new FtpClientPool(new FtpPoolConfig());
+                }
+            }
+        }
+        return defaultPool;
+    }
+
+    /**
+     * 替换默认连接池，旧的连接池会被关闭
+     *
+     * @param pool
+     */
+    public static void setDefault(FtpClientPool pool) {
+        FtpClientPool old;
+        synchronized (FtpClientPool.class) {
+            old = defaultPool;
+            defaultPool = pool;
+        }
+        if (old != null && old != pool) {
+            old.close();
+        }
+    }
+
+    public FtpPoolConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * 从连接池借一个连接，超过最大等待时间抛出异常
+     *
+     * @param key
+     * @return
+     * @throws IOException
+     */
+    public FtpConnection borrow(FtpServerKey key) throws IOException {
+        if (closed) {
+            throw new IOException("ftp连接池已关闭");
+        }
+        KeyedPool keyedPool = pools.computeIfAbsent(key, k -> new KeyedPool());
+        long start = System.nanoTime();
+        try {
+            boolean acquired = keyedPool.permits.tryAcquire(config.getMaxWaitMillis(), TimeUnit.MILLISECONDS);
+            FtpMetrics.getRecorder().recordPoolWait(key, System.nanoTime() - start);
+            if (!acquired) {
+                throw new IOException("获取ftp连接超时：" + key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("获取ftp连接被中断：" + key, e);
+        }
+        try {
+            FtpConnection conn;
+            while ((conn = keyedPool.idle.pollFirst()) != null) {
+                if (!config.isTestOnBorrow() || validate(conn)) {
+                    conn.markBorrowed();
+                    return conn;
+                }
+                destroy(conn);
+            }
+            conn = create(key);
+            conn.markBorrowed();
+            return conn;
+        } catch (IOException | RuntimeException e) {
+            keyedPool.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还连接，重复归还会被忽略
+     *
+     * @param conn
+     */
+    public void release(FtpConnection conn) {
+        if (conn == null || conn.getPool() != this || !conn.markReturned()) {
+            return;
+        }
+        KeyedPool keyedPool = pools.get(conn.getServerKey());
+        if (keyedPool == null) {
+            destroy(conn);
+            return;
+        }
+        if (closed || !conn.isConnected() || keyedPool.idle.size() >= config.getMaxIdlePerKey()) {
+            destroy(conn);
+        } else {
+            //清除上一个使用者留下的断点位置和限速，恢复被动模式(如deleteAll会切换到主动模式)
+            conn.setRestartOffset(0);
+            conn.setRateLimiter(null);
+            conn.enterLocalPassiveMode();
+            keyedPool.idle.offerFirst(conn);
+        }
+        keyedPool.permits.release();
+    }
+
+    /**
+     * 作废连接，连接出现异常时调用，不再放回连接池
+     *
+     * @param conn
+     */
+    public void invalidate(FtpConnection conn) {
+        if (conn == null || conn.getPool() != this || !conn.markReturned()) {
+            return;
+        }
+        destroy(conn);
+        KeyedPool keyedPool = pools.get(conn.getServerKey());
+        if (keyedPool != null) {
+            keyedPool.permits.release();
+        }
+    }
+
+    /**
+     * 当前空闲连接数
+     *
+     * @param key
+     * @return
+     */
+    public int getIdleCount(FtpServerKey key) {
+        KeyedPool keyedPool = pools.get(key);
+        return keyedPool == null ? 0 : keyedPool.idle.size();
+    }
+
+    /**
+     * 当前借出的连接数
+     *
+     * @param key
+     * @return
+     */
+    public int getActiveCount(FtpServerKey key) {
+        KeyedPool keyedPool = pools.get(key);
+        return keyedPool == null ? 0 : config.getMaxActivePerKey() - keyedPool.permits.availablePermits();
+    }
+
+    /**
+     * 关闭连接池，空闲连接立即断开，借出的连接在归还时断开
+     */
+    public void close() {
+        closed = true;
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+        for (KeyedPool keyedPool : pools.values()) {
+            FtpConnection conn;
+            while ((conn = keyedPool.idle.pollFirst()) != null) {
+                destroy(conn);
+            }
+        }
+    }
+
+    private FtpConnection create(FtpServerKey key) throws IOException {
+        FTPClient ftpClient = FtpUtil.connectToFtp(key.getHost(), key.getPort(), key.getUser(), key.getPassWord());
+        if (!(ftpClient instanceof FtpConnection)) {
+            FtpUtil.closeConnect(ftpClient);
+            throw new IOException("登录ftp服务器【" + key.getHost() + "】失败");
+        }
+        FtpConnection conn = (FtpConnection) ftpClient;
+        //连接池的连接统一使用被动模式
+        conn.enterLocalPassiveMode();
+        conn.setPool(this);
+        return conn;
+    }
+
+    private boolean validate(FtpConnection conn) {
+        try {
+            return conn.isConnected() && conn.sendNoOp();
+        } catch (IOException e) {
+            log.warn("ftp连接校验失败：{}", conn.getServerKey());
+            return false;
+        }
+    }
+
+    private void destroy(FtpConnection conn) {
+        conn.setPool(null);
+        FtpUtil.closeConnect(conn);
+    }
+
+    /**
+     * 回收空闲过久的连接，校验剩余空闲连接，并补足最少空闲连接数
+     */
+    private void evict() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<FtpServerKey, KeyedPool> entry : pools.entrySet()) {
+                KeyedPool keyedPool = entry.getValue();
+                //先取出当前的空闲连接再逐个处理，不能边遍历队列边放回，否则迭代器会再次遇到放回队尾的连接
+                int count = keyedPool.idle.size();
+                int remaining = count;
+                List<FtpConnection> survivors = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    FtpConnection conn = keyedPool.idle.pollFirst();
+                    if (conn == null) {
+                        break;
+                    }
+                    boolean expired = now - conn.getLastReturnedAt() > config.getMinEvictableIdleTimeMillis()
+                            && remaining > config.getMinIdlePerKey();
+                    if (expired || (config.isTestWhileIdle() && !validate(conn))) {
+                        destroy(conn);
+                        remaining--;
+                    } else {
+                        survivors.add(conn);
+                    }
+                }
+                for (FtpConnection conn : survivors) {
+                    if (closed || keyedPool.idle.size() >= config.getMaxIdlePerKey()) {
+                        destroy(conn);
+                    } else {
+                        keyedPool.idle.offerLast(conn);
+                    }
+                }
+                while (!closed && keyedPool.idle.size() < config.getMinIdlePerKey()) {
+                    FtpConnection conn = create(entry.getKey());
+                    keyedPool.idle.offerLast(conn);
+                }
+            }
+        } catch (Exception e) {
+            log.error("ftp连接池回收空闲连接失败", e);
+        }
+    }
+
+    private class KeyedPool {
+        private final LinkedBlockingDeque<FtpConnection> idle = new LinkedBlockingDeque<>();
+        private final Semaphore permits = new Semaphore(config.getMaxActivePerKey(), true);
+    }
+}
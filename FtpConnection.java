@@ -0,0 +1,311 @@
+package com.ray.qjc.common.utils;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @ClassName FtpConnection
+ * @Description 带连接信息的ftp客户端，由FtpUtil.connectToFtp创建，可以归还到连接池复用
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public class FtpConnection extends FTPClient {
+    private final FtpServerKey serverKey;
+    //所属连接池，为空表示不是从连接池借出的连接
+    private volatile FtpClientPool pool;
+    private final AtomicBoolean borrowed = new AtomicBoolean(false);
+    private volatile long lastReturnedAt = System.currentTimeMillis();
+    //登录后协商出的本地编码，UTF-8或GBK
+    private volatile String localCharset;
+    //当前传输类型，FTP默认是ASCII
+    private volatile int fileType = FTP.ASCII_FILE_TYPE;
+    //最近一次打开的数据连接
+    private volatile Socket dataSocket;
+    //当前工作目录(已转换编码的绝对路径)，为空表示未知
+    private volatile String workingDirectory;
+    //当前使用者设置的限速(单次传输或租户)，归还连接池时清除
+    private volatile FtpRateLimiter rateLimiter;
+    //最近一次断开前的被动模式、传输类型和工作目录，断开会重置这些状态，FtpRetrier重连时用来恢复
+    private volatile boolean lastPassive;
+    private volatile int lastFileType = FTP.ASCII_FILE_TYPE;
+    private volatile String lastWorkingDirectory;
+    //上传、重命名等需要独占连接的操作使用的锁
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public FtpConnection(FtpServerKey serverKey) {
+        this.serverKey = serverKey;
+    }
+
+    public FtpServerKey getServerKey() {
+        return serverKey;
+    }
+
+    /**
+     * 是否是连接池管理的连接
+     *
+     * @return
+     */
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    FtpClientPool getPool() {
+        return pool;
+    }
+
+    void setPool(FtpClientPool pool) {
+        this.pool = pool;
+    }
+
+    boolean markBorrowed() {
+        return borrowed.compareAndSet(false, true);
+    }
+
+    boolean markReturned() {
+        if (borrowed.compareAndSet(true, false)) {
+            lastReturnedAt = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    long getLastReturnedAt() {
+        return lastReturnedAt;
+    }
+
+    ReentrantLock getLock() {
+        return lock;
+    }
+
+    public String getLocalCharset() {
+        return localCharset;
+    }
+
+    void setLocalCharset(String localCharset) {
+        this.localCharset = localCharset;
+    }
+
+    /**
+     * 当前工作目录，只有通过绝对路径或已知目录下的相对路径切换后才能确定，未知时返回null
+     *
+     * @return
+     */
+    public String getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    /**
+     * 记录控制命令从发送到收到回复的耗时，传输完成时的回复没有对应的命令，不记录
+     * 没有启用指标时直接发送，不注册ProtocolCommandListener，避免每条命令和回复都创建事件对象
+     */
+    @Override
+    public int sendCommand(String command, String args) throws IOException {
+        if (!FtpMetrics.isEnabled()) {
+            return super.sendCommand(command, args);
+        }
+        long start = System.nanoTime();
+        int replyCode = super.sendCommand(command, args);
+        FtpMetrics.getRecorder().recordCommand(serverKey, command, replyCode, System.nanoTime() - start);
+        return replyCode;
+    }
+
+    @Override
+    public boolean changeWorkingDirectory(String pathname) throws IOException {
+        boolean flag = super.changeWorkingDirectory(pathname);
+        workingDirectory = flag ? resolve(workingDirectory, pathname) : workingDirectory;
+        return flag;
+    }
+
+    @Override
+    public boolean changeToParentDirectory() throws IOException {
+        boolean flag = super.changeToParentDirectory();
+        if (flag) {
+            workingDirectory = resolve(workingDirectory, "..");
+        }
+        return flag;
+    }
+
+    @Override
+    public boolean login(String username, String password) throws IOException {
+        workingDirectory = null;
+        return super.login(username, password);
+    }
+
+    @Override
+    public void disconnect() throws IOException {
+        if (isConnected()) {
+            lastPassive = getDataConnectionMode() == PASSIVE_LOCAL_DATA_CONNECTION_MODE;
+            lastFileType = fileType;
+            lastWorkingDirectory = workingDirectory;
+        }
+        workingDirectory = null;
+        fileType = FTP.ASCII_FILE_TYPE;
+        super.disconnect();
+    }
+
+    boolean wasPassive() {
+        return lastPassive;
+    }
+
+    int getLastFileType() {
+        return lastFileType;
+    }
+
+    String getLastWorkingDirectory() {
+        return lastWorkingDirectory;
+    }
+
+    /**
+     * 计算切换后的目录，无法确定时返回null
+     *
+     * @param current
+     * @param pathname
+     * @return
+     */
+    private static String resolve(String current, String pathname) {
+        String base;
+        if (pathname.startsWith("/")) {
+            base = "";
+        } else if (current == null) {
+            return null;
+        } else {
+            base = "/".equals(current) ? "" : current;
+        }
+        StringBuilder path = new StringBuilder(base);
+        for (String segment : pathname.split("/")) {
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment)) {
+                int index = path.lastIndexOf("/");
+                if (index < 0) {
+                    return null;
+                }
+                path.setLength(index);
+            } else {
+                path.append('/').append(segment);
+            }
+        }
+        return path.length() == 0 ? "/" : path.toString();
+    }
+
+    public FtpRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * 设置之后在这个连接上的传输限速，和主机、全局限速同时生效
+     *
+     * @param rateLimiter 为空表示不单独限速
+     */
+    public void setRateLimiter(FtpRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public int getFileType() {
+        return fileType;
+    }
+
+    /**
+     * 最近一次打开的数据连接，被动模式下带有SocketChannel，可以零拷贝发送文件
+     *
+     * @return
+     */
+    public Socket getDataSocket() {
+        return dataSocket;
+    }
+
+    @Override
+    public boolean setFileType(int fileType) throws IOException {
+        boolean flag = super.setFileType(fileType);
+        if (flag) {
+            this.fileType = fileType;
+        }
+        return flag;
+    }
+
+    @Override
+    public boolean setFileType(int fileType, int formatOrByteSize) throws IOException {
+        boolean flag = super.setFileType(fileType, formatOrByteSize);
+        if (flag) {
+            this.fileType = fileType;
+        }
+        return flag;
+    }
+
+    /**
+     * 打开数据连接并发送命令，用于流式读取目录列表，读取完后需调用completePendingCommand
+     *
+     * @param command
+     * @param arg
+     * @return 服务器拒绝时返回null
+     * @throws IOException
+     */
+    Socket openDataConnection(String command, String arg) throws IOException {
+        return _openDataConnection_(command, arg);
+    }
+
+    @Override
+    protected Socket _openDataConnection_(String command, String arg) throws IOException {
+        //只有数据连接使用基于SocketChannel的socket，控制连接保持不变
+        SocketFactory controlFactory = _socketFactory_;
+        _socketFactory_ = ChannelSocketFactory.INSTANCE;
+        try {
+            dataSocket = super._openDataConnection_(command, arg);
+        } finally {
+            _socketFactory_ = controlFactory;
+        }
+        return dataSocket;
+    }
+
+    /**
+     * 创建基于SocketChannel的socket，socket.getChannel()不为空
+     */
+    private static class ChannelSocketFactory extends SocketFactory {
+        private static final ChannelSocketFactory INSTANCE = new ChannelSocketFactory();
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return SocketChannel.open().socket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            Socket socket = createSocket();
+            socket.connect(new InetSocketAddress(host, port));
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            Socket socket = createSocket();
+            socket.bind(new InetSocketAddress(localHost, localPort));
+            socket.connect(new InetSocketAddress(host, port));
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            Socket socket = createSocket();
+            socket.connect(new InetSocketAddress(host, port));
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            Socket socket = createSocket();
+            socket.bind(new InetSocketAddress(localAddress, localPort));
+            socket.connect(new InetSocketAddress(address, port));
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.ray.qjc.common.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @ClassName FtpDirectoryCache
+ * @Description 远程目录存在缓存，按服务器记录已确认存在的目录，避免每次上传都逐级CWD/MKD
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public class FtpDirectoryCache {
+    //缓存有效期(毫秒)，小于等于0时不缓存
+    private static volatile long ttlMillis = TimeUnit.MINUTES.toMillis(10);
+    //每个服务器最多缓存的目录数，超过后清空重新缓存
+    private static volatile int maxEntriesPerServer = 10000;
+
+    private static final Map<FtpServerKey, Map<String, Long>> CACHE = new ConcurrentHashMap<>();
+
+    private FtpDirectoryCache() {
+    }
+
+    public static void setTtlMillis(long ttlMillis) {
+        FtpDirectoryCache.ttlMillis = ttlMillis;
+        if (ttlMillis <= 0) {
+            CACHE.clear();
+        }
+    }
+
+    public static void setMaxEntriesPerServer(int maxEntriesPerServer) {
+        FtpDirectoryCache.maxEntriesPerServer = maxEntriesPerServer;
+    }
+
+    /**
+     * 目录是否已确认存在
+     *
+     * @param key
+     * @param dir 绝对路径，已经转换编码
+     * @return
+     */
+    public static boolean contains(FtpServerKey key, String dir) {
+        Map<String, Long> dirs = CACHE.get(key);
+        if (dirs == null) {
+            return false;
+        }
+        Long expireAt = dirs.get(dir);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt < System.currentTimeMillis()) {
+            dirs.remove(dir, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 记录目录已存在
+     *
+     * @param key
+     * @param dir 绝对路径，已经转换编码
+     */
+    public static void put(FtpServerKey key, String dir) {
+        long ttl = ttlMillis;
+        if (ttl <= 0) {
+            return;
+        }
+        Map<String, Long> dirs = CACHE.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+        if (dirs.size() >= maxEntriesPerServer) {
+            dirs.clear();
+        }
+        dirs.put(dir, System.currentTimeMillis() + ttl);
+    }
+
+    /**
+     * 目录被删除或重命名时，清除该目录及其所有子目录
+     *
+     * @param key
+     * @param dir 绝对路径，已经转换编码
+     */
+    public static void invalidate(FtpServerKey key, String dir) {
+        Map<String, Long> dirs = CACHE.get(key);
+        if (dirs == null) {
+            return;
+        }
+        String prefix = dir.endsWith("/") ? dir : dir + "/";
+        dirs.keySet().removeIf(d -> d.equals(dir) || d.startsWith(prefix));
+    }
+
+    /**
+     * 清空服务器的目录缓存
+     *
+     * @param key
+     */
+    public static void invalidateAll(FtpServerKey key) {
+        CACHE.remove(key);
+    }
+}
@@ -0,0 +1,184 @@
+package com.ray.qjc.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileEntryParser;
+import org.apache.commons.net.ftp.parser.DefaultFTPFileEntryParserFactory;
+import org.apache.commons.net.ftp.parser.MLSxEntryParser;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * @ClassName FtpFileIterator
+ * @Description 流式目录列表，优先使用MLSD，不支持时使用LIST，边读边解析，内存占用和目录大小无关
+ * 遍历结束时自动结束传输，提前放弃遍历时必须调用close，否则连接不能执行下一条命令
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpFileIterator implements Iterator<FTPFile>, Closeable {
+    private final FTPClient ftpClient;
+    private final Socket socket;
+    private final BufferedReader reader;
+    private final FTPFileEntryParser parser;
+    private final boolean mlsd;
+    //不是FtpConnection时退化为一次性列表
+    private final Iterator<FTPFile> fallback;
+    private FTPFile next;
+    private boolean closed;
+
+    private FtpFileIterator(FTPClient ftpClient, Socket socket, FTPFileEntryParser parser, boolean mlsd) throws IOException {
+        this.ftpClient = ftpClient;
+        this.socket = socket;
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), ftpClient.getControlEncoding()));
+        this.parser = parser;
+        this.mlsd = mlsd;
+        this.fallback = null;
+    }
+
+    private FtpFileIterator(FTPClient ftpClient, FTPFile[] files) {
+        this.ftpClient = ftpClient;
+        this.socket = null;
+        this.reader = null;
+        this.parser = null;
+        this.mlsd = false;
+        this.fallback = Arrays.asList(files).iterator();
+    }
+
+    /**
+     * 打开目录列表
+     *
+     * @param ftpClient
+     * @param path      已经转换编码的目录，为空时列出当前目录
+     * @return
+     * @throws IOException
+     */
+    public static FtpFileIterator open(FTPClient ftpClient, String path) throws IOException {
+        boolean mlsd = ftpClient.hasFeature("MLST");
+        if (!(ftpClient instanceof FtpConnection)) {
+            FTPFile[] files = mlsd ? ftpClient.mlistDir(path) : ftpClient.listFiles(path);
+            return new FtpFileIterator(ftpClient, files);
+        }
+        FTPFileEntryParser parser = mlsd ? MLSxEntryParser.getInstance()
+                : new DefaultFTPFileEntryParserFactory().createFileEntryParser(ftpClient.getSystemType());
+        Socket socket = ((FtpConnection) ftpClient).openDataConnection(mlsd ? "MLSD" : "LIST", path);
+        if (socket == null) {
+            throw new IOException("打开目录列表失败：" + ftpClient.getReplyString());
+        }
+        return new FtpFileIterator(ftpClient, socket, parser, mlsd);
+    }
+
+    /**
+     * 转为Stream，Stream关闭时结束传输
+     *
+     * @return
+     */
+    public Stream<FTPFile> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::closeQuietly);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            next = readNext();
+        } catch (IOException e) {
+            closeQuietly();
+            throw new IllegalStateException("读取目录列表失败", e);
+        }
+        if (next == null) {
+            closeQuietly();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public FTPFile next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        FTPFile file = next;
+        next = null;
+        return file;
+    }
+
+    private FTPFile readNext() throws IOException {
+        if (fallback != null) {
+            while (fallback.hasNext()) {
+                FTPFile file = fallback.next();
+                if (file != null) {
+                    return file;
+                }
+            }
+            return null;
+        }
+        String line;
+        while ((line = reader.readLine()) != null) {
+            //MLSD会返回当前目录和上级目录
+            if (mlsd && isSelfOrParent(line)) {
+                continue;
+            }
+            FTPFile file = parser.parseFTPEntry(line);
+            if (file != null) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSelfOrParent(String line) {
+        String facts = line.toLowerCase();
+        return facts.contains("type=cdir;") || facts.contains("type=pdir;");
+    }
+
+    /**
+     * 结束传输，读取服务器的传输完成回复
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (fallback != null) {
+            return;
+        }
+        try {
+            reader.close();
+        } finally {
+            socket.close();
+            if (!ftpClient.completePendingCommand()) {
+                log.warn("目录列表未正常结束：{}", ftpClient.getReplyString());
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException e) {
+            log.error("关闭目录列表失败", e);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.ray.qjc.common.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @ClassName FtpMetadataCache
+ * @Description 目录列表缓存，按 服务器 + 目录 缓存文件元数据，LRU + 过期时间淘汰
+ * FtpUtil自身的上传、重命名、删除、合并会自动清除相关目录的缓存，默认关闭
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public class FtpMetadataCache {
+    private static volatile boolean enabled = false;
+    //缓存有效期(毫秒)
+    private static volatile long ttlMillis = TimeUnit.SECONDS.toMillis(30);
+    //最多缓存的目录数
+    private static volatile int maxEntries = 1024;
+
+    private static final LongAdder HIT_COUNT = new LongAdder();
+    private static final LongAdder MISS_COUNT = new LongAdder();
+
+    private static final Map<CacheKey, CacheEntry> CACHE = new LinkedHashMap<CacheKey, CacheEntry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private FtpMetadataCache() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 开启或关闭缓存，关闭时清空已缓存的数据
+     *
+     * @param enabled
+     */
+    public static void setEnabled(boolean enabled) {
+        FtpMetadataCache.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    public static void setTtlMillis(long ttlMillis) {
+        FtpMetadataCache.ttlMillis = ttlMillis;
+    }
+
+    public static void setMaxEntries(int maxEntries) {
+        FtpMetadataCache.maxEntries = maxEntries;
+    }
+
+    public static long getHitCount() {
+        return HIT_COUNT.sum();
+    }
+
+    public static long getMissCount() {
+        return MISS_COUNT.sum();
+    }
+
+    /**
+     * 获取缓存的目录列表，未缓存或已过期返回null
+     *
+     * @param key
+     * @param dir 绝对路径，已经转换编码
+     * @return 文件名 -> 文件
+     */
+    public static Map<String, FTPFile> getListing(FtpServerKey key, String dir) {
+        if (!enabled) {
+            return null;
+        }
+        CacheKey cacheKey = new CacheKey(key, dir);
+        CacheEntry entry;
+        synchronized (CACHE) {
+            entry = CACHE.get(cacheKey);
+            if (entry != null && entry.expireAt < System.currentTimeMillis()) {
+                CACHE.remove(cacheKey);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            MISS_COUNT.increment();
+            return null;
+        }
+        HIT_COUNT.increment();
+        return entry.files;
+    }
+
+    /**
+     * 缓存目录列表
+     *
+     * @param key
+     * @param dir   绝对路径，已经转换编码
+     * @param files 文件名 -> 文件
+     */
+    public static void putListing(FtpServerKey key, String dir, Map<String, FTPFile> files) {
+        if (!enabled) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(Collections.unmodifiableMap(files), System.currentTimeMillis() + ttlMillis);
+        synchronized (CACHE) {
+            CACHE.put(new CacheKey(key, dir), entry);
+        }
+    }
+
+    /**
+     * 路径发生变化时清除缓存：所在目录的列表，以及它作为目录时自身和子目录的列表
+     *
+     * @param key
+     * @param path 绝对路径，已经转换编码
+     */
+    public static void invalidate(FtpServerKey key, String path) {
+        if (!enabled) {
+            return;
+        }
+        int index = path.lastIndexOf("/");
+        String parent = index <= 0 ? "/" : path.substring(0, index);
+        String prefix = path.endsWith("/") ? path : path + "/";
+        synchronized (CACHE) {
+            Iterator<CacheKey> iterator = CACHE.keySet().iterator();
+            while (iterator.hasNext()) {
+                CacheKey cacheKey = iterator.next();
+                if (!cacheKey.server.equals(key)) {
+                    continue;
+                }
+                String dir = cacheKey.dir;
+                if (dir.equals(parent) || dir.equals(path) || dir.startsWith(prefix)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 清除服务器的所有缓存
+     *
+     * @param key
+     */
+    public static void invalidateAll(FtpServerKey key) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (CACHE) {
+            CACHE.keySet().removeIf(cacheKey -> cacheKey.server.equals(key));
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class CacheKey {
+        private final FtpServerKey server;
+        private final String dir;
+    }
+
+    private static class CacheEntry {
+        private final Map<String, FTPFile> files;
+        private final long expireAt;
+
+        private CacheEntry(Map<String, FTPFile> files, long expireAt) {
+            this.files = files;
+            this.expireAt = expireAt;
+        }
+    }
+}
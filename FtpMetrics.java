@@ -0,0 +1,54 @@
+package com.ray.qjc.common.utils;
+
+/**
+ * @ClassName FtpMetrics
+ * @Description 全局的ftp指标记录器和指标名称，默认不记录
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public class FtpMetrics {
+    //控制命令耗时，标签：server、user、command
+    public static final String COMMAND_DURATION = "ftp.command.duration";
+    //数据传输耗时，标签：server、user、operation、outcome
+    public static final String TRANSFER_DURATION = "ftp.transfer.duration";
+    //传输字节数，标签：server、user、operation
+    public static final String TRANSFER_BYTES = "ftp.transfer.bytes";
+    //建立连接并登录耗时，标签：server、user、outcome
+    public static final String CONNECT_DURATION = "ftp.connection.setup";
+    //借连接等待时间，标签：server、user
+    public static final String POOL_WAIT = "ftp.pool.wait";
+    //重试次数，标签：server、user、operation
+    public static final String RETRIES = "ftp.retries";
+    //失败次数，标签：server、user、operation、reply
+    public static final String FAILURES = "ftp.failures";
+
+    public static final String OP_UPLOAD = "upload";
+    public static final String OP_DOWNLOAD = "download";
+    public static final String OP_MERGE = "merge";
+    public static final String OP_COPY = "copy";
+    public static final String OP_CONNECT = "connect";
+    public static final String OP_EXISTS = "exists";
+    public static final String OP_DELETE = "delete";
+
+    private static volatile FtpMetricsRecorder recorder = FtpMetricsRecorder.NOOP;
+
+    private FtpMetrics() {
+    }
+
+    public static FtpMetricsRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * 设置全局记录器，传null恢复为不记录
+     *
+     * @param recorder
+     */
+    public static void setRecorder(FtpMetricsRecorder recorder) {
+        FtpMetrics.recorder = recorder == null ? FtpMetricsRecorder.NOOP : recorder;
+    }
+
+    public static boolean isEnabled() {
+        return recorder != FtpMetricsRecorder.NOOP;
+    }
+}
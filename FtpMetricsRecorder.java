@@ -0,0 +1,95 @@
+package com.ray.qjc.common.utils;
+
+/**
+ * @ClassName FtpMetricsRecorder
+ * @Description ftp指标记录接口，实现类需要线程安全且不阻塞，记录时不应分配对象
+ * 指标名称和标签见FtpMetrics，可以按这些名称桥接到Micrometer等指标库
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public interface FtpMetricsRecorder {
+
+    /**
+     * 不记录任何指标
+     */
+    FtpMetricsRecorder NOOP = new FtpMetricsRecorder() {
+        @Override
+        public void recordCommand(FtpServerKey server, String command, int replyCode, long nanos) {
+        }
+
+        @Override
+        public void recordTransfer(FtpServerKey server, String operation, long bytes, long nanos, boolean success) {
+        }
+
+        @Override
+        public void recordConnect(FtpServerKey server, long nanos, boolean success) {
+        }
+
+        @Override
+        public void recordPoolWait(FtpServerKey server, long nanos) {
+        }
+
+        @Override
+        public void recordRetry(FtpServerKey server, String operation) {
+        }
+
+        @Override
+        public void recordFailure(FtpServerKey server, String operation, int replyCode) {
+        }
+    };
+
+    /**
+     * 控制命令从发送到收到回复的耗时
+     *
+     * @param server
+     * @param command   命令，如STOR、CWD
+     * @param replyCode 回复码
+     * @param nanos
+     */
+    void recordCommand(FtpServerKey server, String command, int replyCode, long nanos);
+
+    /**
+     * 一次数据传输
+     *
+     * @param server
+     * @param operation 操作，见FtpMetrics.OP_开头的常量
+     * @param bytes     传输的字节数
+     * @param nanos
+     * @param success
+     */
+    void recordTransfer(FtpServerKey server, String operation, long bytes, long nanos, boolean success);
+
+    /**
+     * 建立连接并登录
+     *
+     * @param server
+     * @param nanos
+     * @param success
+     */
+    void recordConnect(FtpServerKey server, long nanos, boolean success);
+
+    /**
+     * 从连接池借连接的等待时间
+     *
+     * @param server
+     * @param nanos
+     */
+    void recordPoolWait(FtpServerKey server, long nanos);
+
+    /**
+     * 一次重试
+     *
+     * @param server
+     * @param operation
+     */
+    void recordRetry(FtpServerKey server, String operation);
+
+    /**
+     * 操作失败
+     *
+     * @param server
+     * @param operation
+     * @param replyCode 服务器回复码，网络异常等没有回复时为0
+     */
+    void recordFailure(FtpServerKey server, String operation, int replyCode);
+}
@@ -0,0 +1,231 @@
+package com.ray.qjc.common.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @ClassName FtpMetricsRegistry
+ * @Description 基于LongAdder的内存指标记录器，记录时只做查表和累加，不分配对象
+ * 通过snapshot按FtpMetrics中的名称和标签导出，便于定时上报或注册到Micrometer的FunctionTimer/FunctionCounter
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public class FtpMetricsRegistry implements FtpMetricsRecorder {
+    //耗时分布的桶数，第i个桶的上限为2^i微秒，最后一个桶没有上限
+    public static final int BUCKETS = 27;
+    //记录的最大回复码
+    private static final int MAX_REPLY_CODE = 600;
+
+    private final Map<FtpServerKey, ServerMeters> servers = new ConcurrentHashMap<>();
+    //导出的标签(服务器 + 用户) -> 指标，只有密码不同的服务器共用同一组指标，导出时不会出现标签相同的多条指标
+    private final Map<String, ServerMeters> labels = new ConcurrentHashMap<>();
+
+    @Override
+    public void recordCommand(FtpServerKey server, String command, int replyCode, long nanos) {
+        ServerMeters meters = server(server);
+        Timer timer = meters.commands.get(command);
+        if (timer == null) {
+            timer = putIfAbsent(meters.commands, command, new Timer());
+        }
+        timer.record(nanos);
+    }
+
+    @Override
+    public void recordTransfer(FtpServerKey server, String operation, long bytes, long nanos, boolean success) {
+        OperationMeters meters = operation(server, operation);
+        (success ? meters.success : meters.failure).record(nanos);
+        if (bytes > 0) {
+            meters.bytes.add(bytes);
+        }
+    }
+
+    @Override
+    public void recordConnect(FtpServerKey server, long nanos, boolean success) {
+        ServerMeters meters = server(server);
+        (success ? meters.connectSuccess : meters.connectFailure).record(nanos);
+    }
+
+    @Override
+    public void recordPoolWait(FtpServerKey server, long nanos) {
+        server(server).poolWait.record(nanos);
+    }
+
+    @Override
+    public void recordRetry(FtpServerKey server, String operation) {
+        operation(server, operation).retries.increment();
+    }
+
+    @Override
+    public void recordFailure(FtpServerKey server, String operation, int replyCode) {
+        int index = replyCode < 0 || replyCode >= MAX_REPLY_CODE ? 0 : replyCode;
+        operation(server, operation).failures.incrementAndGet(index);
+    }
+
+    private ServerMeters server(FtpServerKey server) {
+        ServerMeters meters = servers.get(server);
+        return meters != null ? meters : putIfAbsent(servers, server, label(server));
+    }
+
+    private ServerMeters label(FtpServerKey server) {
+        String host = server.getHost() + ":" + server.getPort();
+        String label = host + "/" + server.getUser();
+        ServerMeters meters = labels.get(label);
+        return meters != null ? meters : putIfAbsent(labels, label, new ServerMeters(host, server.getUser()));
+    }
+
+    private OperationMeters operation(FtpServerKey server, String operation) {
+        Map<String, OperationMeters> operations = server(server).operations;
+        OperationMeters meters = operations.get(operation);
+        return meters != null ? meters : putIfAbsent(operations, operation, new OperationMeters());
+    }
+
+    /**
+     * 先get再putIfAbsent，已存在时不会创建lambda或加锁
+     */
+    private static <K, V> V putIfAbsent(Map<K, V> map, K key, V value) {
+        V old = map.putIfAbsent(key, value);
+        return old == null ? value : old;
+    }
+
+    /**
+     * 导出当前所有指标
+     *
+     * @return
+     */
+    public List<Measurement> snapshot() {
+        List<Measurement> list = new ArrayList<>();
+        for (ServerMeters meters : labels.values()) {
+            //同一服务器的不同用户分别记录，用user标签区分
+            String server = meters.server;
+            String user = meters.user;
+            for (Map.Entry<String, Timer> entry : meters.commands.entrySet()) {
+                list.add(entry.getValue().toMeasurement(FtpMetrics.COMMAND_DURATION, tags("server", server, "user", user, "command", entry.getKey())));
+            }
+            list.add(meters.connectSuccess.toMeasurement(FtpMetrics.CONNECT_DURATION, tags("server", server, "user", user, "outcome", "success")));
+            list.add(meters.connectFailure.toMeasurement(FtpMetrics.CONNECT_DURATION, tags("server", server, "user", user, "outcome", "failure")));
+            list.add(meters.poolWait.toMeasurement(FtpMetrics.POOL_WAIT, tags("server", server, "user", user)));
+            for (Map.Entry<String, OperationMeters> entry : meters.operations.entrySet()) {
+                String operation = entry.getKey();
+                OperationMeters op = entry.getValue();
+                list.add(op.success.toMeasurement(FtpMetrics.TRANSFER_DURATION, tags("server", server, "user", user, "operation", operation, "outcome", "success")));
+                list.add(op.failure.toMeasurement(FtpMetrics.TRANSFER_DURATION, tags("server", server, "user", user, "operation", operation, "outcome", "failure")));
+                list.add(counter(FtpMetrics.TRANSFER_BYTES, tags("server", server, "user", user, "operation", operation), op.bytes.sum()));
+                list.add(counter(FtpMetrics.RETRIES, tags("server", server, "user", user, "operation", operation), op.retries.sum()));
+                for (int code = 0; code < MAX_REPLY_CODE; code++) {
+                    long count = op.failures.get(code);
+                    if (count > 0) {
+                        list.add(counter(FtpMetrics.FAILURES, tags("server", server, "user", user, "operation", operation, "reply", String.valueOf(code)), count));
+                    }
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 第i个桶的上限(纳秒)，最后一个桶返回Long.MAX_VALUE
+     *
+     * @param index
+     * @return
+     */
+    public static long bucketUpperBoundNanos(int index) {
+        return index >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << index) * 1000L;
+    }
+
+    private static Measurement counter(String name, Map<String, String> tags, long value) {
+        return new Measurement(name, tags, value, value, 0, null);
+    }
+
+    private static Map<String, String> tags(String... keyValues) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            tags.put(keyValues[i], keyValues[i + 1]);
+        }
+        return Collections.unmodifiableMap(tags);
+    }
+
+    private static class ServerMeters {
+        private final String server;
+        private final String user;
+        private final Map<String, Timer> commands = new ConcurrentHashMap<>();
+        private final Map<String, OperationMeters> operations = new ConcurrentHashMap<>();
+        private final Timer connectSuccess = new Timer();
+        private final Timer connectFailure = new Timer();
+        private final Timer poolWait = new Timer();
+
+        private ServerMeters(String server, String user) {
+            this.server = server;
+            this.user = user;
+        }
+    }
+
+    private static class OperationMeters {
+        private final Timer success = new Timer();
+        private final Timer failure = new Timer();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        //按回复码计数，没有回复码的失败记在0
+        private final AtomicLongArray failures = new AtomicLongArray(MAX_REPLY_CODE);
+    }
+
+    /**
+     * 计时器：次数、总耗时、最大耗时和按2的幂分桶的耗时分布
+     */
+    private static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+        private Timer() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        private void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            long micros = nanos / 1000;
+            int index = 64 - Long.numberOfLeadingZeros(micros);
+            buckets[Math.min(index, BUCKETS - 1)].increment();
+        }
+
+        private Measurement toMeasurement(String name, Map<String, String> tags) {
+            long[] counts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+            }
+            return new Measurement(name, tags, count.sum(), totalNanos.sum(), maxNanos.get(), counts);
+        }
+    }
+
+    /**
+     * 导出的单个指标
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Measurement {
+        private final String name;
+        private final Map<String, String> tags;
+        //次数，计数器为当前值
+        private final long count;
+        //计时器为总耗时(纳秒)，计数器为当前值
+        private final long total;
+        //计时器的最大耗时(纳秒)
+        private final long max;
+        //计时器的耗时分布，计数器为null，桶上限见bucketUpperBoundNanos
+        private final long[] buckets;
+    }
+}
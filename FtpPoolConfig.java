@@ -0,0 +1,29 @@
+package com.ray.qjc.common.utils;
+
+import lombok.Data;
+
+/**
+ * @ClassName FtpPoolConfig
+ * @Description ftp连接池配置
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Data
+public class FtpPoolConfig {
+    //每个key同时借出的最大连接数
+    private int maxActivePerKey = 8;
+    //每个key最多保留的空闲连接数
+    private int maxIdlePerKey = 8;
+    //每个key最少保留的空闲连接数
+    private int minIdlePerKey = 0;
+    //借连接时的最长等待时间(毫秒)
+    private long maxWaitMillis = 10000L;
+    //借出时是否用NOOP校验连接
+    private boolean testOnBorrow = true;
+    //空闲时是否用NOOP校验连接
+    private boolean testWhileIdle = true;
+    //空闲多久后可以被回收(毫秒)
+    private long minEvictableIdleTimeMillis = 5 * 60 * 1000L;
+    //空闲回收线程运行间隔(毫秒)，小于等于0时不启动
+    private long timeBetweenEvictionRunsMillis = 30 * 1000L;
+}
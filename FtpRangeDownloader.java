@@ -0,0 +1,212 @@
+package com.ray.qjc.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTP;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ClassName FtpRangeDownloader
+ * @Description 多连接分段下载：每个连接用REST从自己的偏移量开始读取，直接写入本地临时文件的对应位置，
+ * 全部成功后再替换本地文件，失败时删除临时文件，不会留下大小正确但内容不完整的文件
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpRangeDownloader {
+    //每段最小大小，文件太小时不再切分
+    private static final long MIN_RANGE_SIZE = 1024 * 1024L;
+
+    private FtpRangeDownloader() {
+    }
+
+    /**
+     * 使用默认连接池分段下载
+     *
+     * @param key         ftp服务器
+     * @param remotePath  远程文件绝对路径
+     * @param localFile   本地文件，已存在时下载成功后被覆盖，失败时保持不变
+     * @param parallelism 并行连接数
+     * @return
+     */
+    public static boolean download(FtpServerKey key, String remotePath, File localFile, int parallelism) {
+        return download(FtpClientPool.getDefault(), key, remotePath, localFile, parallelism);
+    }
+
+    /**
+     * 分段下载
+     *
+     * @param pool        连接池
+     * @param key         ftp服务器
+     * @param remotePath  远程文件绝对路径
+     * @param localFile   本地文件，已存在时下载成功后被覆盖，失败时保持不变
+     * @param parallelism 并行连接数
+     * @return
+     */
+    public static boolean download(FtpClientPool pool, FtpServerKey key, String remotePath, File localFile, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("并行数必须大于0");
+        }
+        long totalSize;
+        FtpConnection conn = null;
+        try {
+            conn = pool.borrow(key);
+            conn.enterLocalPassiveMode();
+            conn.setFileType(FTP.BINARY_FILE_TYPE);
+            totalSize = FtpUtil.remoteSize(conn, FtpUtil.encodeName(conn, remotePath));
+        } catch (IOException e) {
+            log.error("获取远程文件【{}】大小失败", remotePath, e);
+            pool.invalidate(conn);
+            return false;
+        }
+        pool.release(conn);
+        if (totalSize < 0) {
+            log.error("远程文件【{}】不存在", remotePath);
+            return false;
+        }
+
+        int rangeCount = (int) Math.max(1, Math.min(parallelism, totalSize / MIN_RANGE_SIZE));
+        long rangeSize = (totalSize + rangeCount - 1) / rangeCount;
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(rangeCount, r -> {
+            Thread t = new Thread(r, "ftp-range-download-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        //和本地文件在同一目录，成功后可以直接改名
+        File partFile = new File(localFile.getAbsoluteFile().getParentFile(), localFile.getName() + ".downloading");
+        RandomAccessFile raf = null;
+        boolean flag = false;
+        try {
+            raf = new RandomAccessFile(partFile, "rw");
+            raf.setLength(totalSize);
+            FileChannel channel = raf.getChannel();
+            List<Future<Boolean>> futures = new ArrayList<>(rangeCount);
+            for (int i = 0; i < rangeCount; i++) {
+                long offset = i * rangeSize;
+                long length = Math.min(rangeSize, totalSize - offset);
+                if (length <= 0) {
+                    break;
+                }
+                futures.add(executor.submit(() -> downloadRange(pool, key, remotePath, channel, offset, length, totalSize)));
+            }
+            boolean success = true;
+            for (Future<Boolean> future : futures) {
+                if (!future.get()) {
+                    success = false;
+                }
+            }
+            if (success) {
+                channel.force(false);
+                raf.close();
+                raf = null;
+                Files.move(partFile.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                flag = true;
+                log.info("=============文件【{}】分段下载成功=============", remotePath);
+            }
+            return flag;
+        } catch (IOException | ExecutionException e) {
+            log.error("分段下载文件【{}】失败", remotePath, e);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            executor.shutdownNow();
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    log.error("关闭本地文件失败", e);
+                }
+            }
+            if (!flag && partFile.exists() && !partFile.delete()) {
+                log.warn("删除本地临时文件【{}】失败", partFile.getName());
+            }
+        }
+    }
+
+    /**
+     * 下载一段数据写入本地文件对应位置
+     *
+     * @param pool
+     * @param key
+     * @param remotePath
+     * @param channel
+     * @param offset
+     * @param length
+     * @param totalSize
+     * @return
+     */
+    private static boolean downloadRange(FtpClientPool pool, FtpServerKey key, String remotePath, FileChannel channel,
+                                         long offset, long length, long totalSize) {
+        String dir = remotePath.substring(0, remotePath.lastIndexOf("/"));
+        String file = remotePath.substring(remotePath.lastIndexOf("/") + 1);
+        FtpConnection conn = null;
+        try {
+            conn = pool.borrow(key);
+            conn.enterLocalPassiveMode();
+            conn.setFileType(FTP.BINARY_FILE_TYPE);
+            FtpUtil.changeDirectory(conn, dir);
+            long start = System.nanoTime();
+            conn.setRestartOffset(offset);
+            InputStream data = conn.retrieveFileStream(FtpUtil.encodeName(conn, file));
+            if (data == null) {
+                log.error("下载【{}】偏移量{}失败：{}", remotePath, offset, conn.getReplyString());
+                pool.release(conn);
+                return false;
+            }
+            //各段共用主机和全局限速，整个文件的速度不会超过限制
+            InputStream in = FtpRateLimiter.throttle(conn, data);
+            long received = 0;
+            try {
+                byte[] bytes = new byte[FtpUtil.getBufferSize()];
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                int n;
+                while (received < length
+                        && (n = in.read(bytes, 0, (int) Math.min(bytes.length, length - received))) != -1) {
+                    buffer.clear().limit(n);
+                    long position = offset + received;
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    received += n;
+                }
+            } finally {
+                in.close();
+            }
+            //不是最后一段时提前关闭了数据连接，服务器可能返回426，不影响已经读到的数据
+            boolean complete = conn.completePendingCommand();
+            if (!complete && offset + length >= totalSize) {
+                log.error("下载【{}】偏移量{}未正常结束：{}", remotePath, offset, conn.getReplyString());
+                pool.release(conn);
+                return false;
+            }
+            FtpUtil.recordTransfer(conn, FtpMetrics.OP_DOWNLOAD, received, start, received == length);
+            pool.release(conn);
+            if (received != length) {
+                log.error("下载【{}】偏移量{}数据不完整：{}/{}", remotePath, offset, received, length);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("下载【{}】偏移量{}异常", remotePath, offset, e);
+            pool.invalidate(conn);
+            return false;
+        }
+    }
+}
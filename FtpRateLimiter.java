@@ -0,0 +1,221 @@
+package com.ray.qjc.common.utils;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @ClassName FtpRateLimiter
+ * @Description 传输限速的令牌桶，按缓冲区大小整块取令牌，只用一次CAS更新下一次可发送的时间，不加锁，速率可以随时调整
+ * 上传、下载、复制和合并都受限速，一次传输同时受连接上设置的限速(单次传输或租户)、服务器主机限速和全局限速约束，默认都不限速
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public class FtpRateLimiter {
+    //默认允许的突发时长(毫秒)，空闲后最多可以立即发送这么长时间的数据量
+    public static final long DEFAULT_BURST_MILLIS = 200L;
+
+    private static final FtpRateLimiter GLOBAL = new FtpRateLimiter(0);
+    private static final Map<String, FtpRateLimiter> HOSTS = new ConcurrentHashMap<>();
+    private static final Map<String, FtpRateLimiter> TENANTS = new ConcurrentHashMap<>();
+
+    //每秒字节数，小于等于0表示不限速
+    private volatile long bytesPerSecond;
+    private volatile long burstNanos;
+    //下一个字节理论上可以发送的时间(System.nanoTime)
+    private final AtomicLong nextFreeNanos = new AtomicLong(System.nanoTime());
+
+    public FtpRateLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, DEFAULT_BURST_MILLIS);
+    }
+
+    public FtpRateLimiter(long bytesPerSecond, long burstMillis) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(burstMillis, 0));
+    }
+
+    /**
+     * 全局限速，所有受限速的传输共用
+     *
+     * @return
+     */
+    public static FtpRateLimiter global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 服务器主机的限速，连接同一主机的传输共用
+     *
+     * @param host
+     * @return
+     */
+    public static FtpRateLimiter host(String host) {
+        FtpRateLimiter limiter = HOSTS.get(host);
+        return limiter != null ? limiter : HOSTS.computeIfAbsent(host, h -> new FtpRateLimiter(0));
+    }
+
+    /**
+     * 租户的限速，FtpTransferScheduler执行任务时设置到连接上
+     *
+     * @param tenant
+     * @return
+     */
+    public static FtpRateLimiter tenant(String tenant) {
+        FtpRateLimiter limiter = TENANTS.get(tenant);
+        return limiter != null ? limiter : TENANTS.computeIfAbsent(tenant, t -> new FtpRateLimiter(0));
+    }
+
+    /**
+     * 调整速率，正在进行的传输从下一块数据开始按新速率
+     *
+     * @param bytesPerSecond 小于等于0表示不限速
+     */
+    public void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getRate() {
+        return bytesPerSecond;
+    }
+
+    public void setBurstMillis(long burstMillis) {
+        this.burstNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(burstMillis, 0));
+    }
+
+    public boolean isLimited() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * 取bytes个令牌，不够时等待
+     *
+     * @param bytes
+     * @throws InterruptedIOException 等待时被中断
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        park(reserve(bytes));
+    }
+
+    /**
+     * 预订令牌，返回需要等待的纳秒数
+     * 空闲时下一次发送时间最多落后当前时间burst，即最多积累burst时长的令牌
+     */
+    private long reserve(long bytes) {
+        long rate = bytesPerSecond;
+        if (rate <= 0 || bytes <= 0) {
+            return 0;
+        }
+        long cost = (long) (bytes * 1e9 / rate);
+        long now;
+        long prev;
+        long next;
+        do {
+            now = System.nanoTime();
+            prev = nextFreeNanos.get();
+            next = Math.max(prev, now - burstNanos) + cost;
+        } while (!nextFreeNanos.compareAndSet(prev, next));
+        return next - now;
+    }
+
+    private static void park(long nanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + nanos;
+        while (nanos > 0) {
+            LockSupport.parkNanos(nanos);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("等待传输限速时被中断");
+            }
+            nanos = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * 连接上的传输受到的限速：连接上设置的、主机的和全局的
+     * 传输开始时不限速的也包括在内，传输过程中调整速率可以立即生效，不限速时每块数据只多读一次volatile
+     *
+     * @param ftpClient
+     * @return
+     */
+    static Throttle throttle(FTPClient ftpClient) {
+        List<FtpRateLimiter> limiters = new ArrayList<>(3);
+        if (ftpClient instanceof FtpConnection && ((FtpConnection) ftpClient).getRateLimiter() != null) {
+            limiters.add(((FtpConnection) ftpClient).getRateLimiter());
+        }
+        String host = FtpServerKey.of(ftpClient).getHost();
+        if (host != null) {
+            limiters.add(host(host));
+        }
+        limiters.add(GLOBAL);
+        return new Throttle(limiters.toArray(new FtpRateLimiter[0]));
+    }
+
+    /**
+     * 给输入流加上连接上的传输限速
+     *
+     * @param ftpClient
+     * @param in
+     * @return
+     */
+    static InputStream throttle(FTPClient ftpClient, InputStream in) {
+        return new ThrottledInputStream(in, throttle(ftpClient));
+    }
+
+    /**
+     * 一次传输受到的多个限速，同时在每个限速上预订，等待其中最长的时间
+     */
+    static class Throttle {
+        private final FtpRateLimiter[] limiters;
+
+        private Throttle(FtpRateLimiter[] limiters) {
+            this.limiters = limiters;
+        }
+
+        void acquire(long bytes) throws InterruptedIOException {
+            long wait = 0;
+            for (FtpRateLimiter limiter : limiters) {
+                wait = Math.max(wait, limiter.reserve(bytes));
+            }
+            park(wait);
+        }
+    }
+
+    /**
+     * 读取后按读到的字节数取令牌
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final Throttle throttle;
+
+        private ThrottledInputStream(InputStream in, Throttle throttle) {
+            super(in);
+            this.throttle = throttle;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                throttle.acquire(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                throttle.acquire(n);
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.ray.qjc.common.utils;
+
+import java.io.IOException;
+
+/**
+ * @ClassName FtpReplyException
+ * @Description 服务器返回失败回复码时抛出，带上回复码用于区分临时失败和永久失败
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public class FtpReplyException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int replyCode;
+
+    public FtpReplyException(int replyCode, String replyString) {
+        super(replyString == null ? String.valueOf(replyCode) : replyString.trim());
+        this.replyCode = replyCode;
+    }
+
+    public int getReplyCode() {
+        return replyCode;
+    }
+}
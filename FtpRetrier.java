@@ -0,0 +1,308 @@
+package com.ray.qjc.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @ClassName FtpRetrier
+ * @Description 按FtpRetryPolicy自动重试ftp操作：临时失败时等待后重连，恢复登录、编码、传输类型、被动模式和工作目录，
+ * 上传从服务器已确认的大小处追加，下载从本地已写入的大小处用REST续传，已经传输的数据不会丢失
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpRetrier {
+    private final FtpRetryPolicy policy;
+
+    public FtpRetrier(FtpRetryPolicy policy) {
+        this.policy = policy;
+    }
+
+    public FtpRetryPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * 连接并登录，421等临时失败和网络异常会重试
+     *
+     * @param key
+     * @return
+     * @throws IOException 重试次数用完或永久失败(如530登录失败)
+     */
+    public FtpConnection connect(FtpServerKey key) throws IOException {
+        FtpConnection conn = new FtpConnection(key);
+        return execute(conn, FtpMetrics.OP_CONNECT, new Session(), c -> c);
+    }
+
+    /**
+     * 在连接上执行操作，操作抛出临时失败时重连并恢复会话后重新执行
+     * 操作需要可以重复执行，服务器拒绝时应抛出FtpReplyException以便按回复码判断
+     *
+     * @param conn
+     * @param operation 操作名，用于日志和重试指标
+     * @param call
+     * @param <T>
+     * @return
+     * @throws IOException 重试次数用完或永久失败
+     */
+    public <T> T execute(FtpConnection conn, String operation, FtpAsyncClient.FtpCall<T> call) throws IOException {
+        return execute(conn, operation, conn.isConnected() ? null : Session.of(conn), call);
+    }
+
+    /**
+     * @param lost 需要重新建立的会话，为空表示连接可用
+     */
+    private <T> T execute(FtpConnection conn, String operation, Session lost, FtpAsyncClient.FtpCall<T> call) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            //操作失败时可能已经断开连接(如FtpUtil.abortTransfer)，断开会重置被动模式、传输类型和工作目录，
+            //所以在每次执行前连接还正常时保存会话
+            Session session = lost;
+            try {
+                if (lost != null) {
+                    restore(conn, lost);
+                    lost = null;
+                }
+                session = Session.of(conn);
+                return call.call(conn);
+            } catch (Exception e) {
+                if (!policy.isTransient(e) || attempt >= policy.getMaxAttempts()) {
+                    throw e instanceof IOException ? (IOException) e : new IOException(e);
+                }
+                long backoff = policy.backoffMillis(attempt);
+                log.warn("ftp操作【{}】第{}次失败，{}毫秒后重试：{}", operation, attempt, backoff, e.getMessage());
+                FtpMetrics.getRecorder().recordRetry(conn.getServerKey(), operation);
+                if (lost == null && !usable(conn, e)) {
+                    lost = session;
+                }
+                sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * 上传本地文件，重试时按服务器上已有的大小续传
+     *
+     * @param conn
+     * @param localFile
+     * @param remotePath 远程文件绝对路径
+     * @return 远程文件比本地大或校验不一致时返回false
+     * @throws IOException 重试次数用完或永久失败
+     */
+    public boolean upload(FtpConnection conn, File localFile, String remotePath) throws IOException {
+        //每次尝试时加锁，等待重试期间不占用锁；和FtpUtil.upload一样先锁远程路径再锁连接
+        ReentrantLock pathLock = FtpUtil.pathLock(remotePath);
+        ReentrantLock connLock = FtpUtil.clientLock(conn);
+        return execute(conn, FtpMetrics.OP_UPLOAD, c -> {
+            pathLock.lock();
+            try {
+                connLock.lock();
+                try {
+                    return uploadOnce(c, localFile, remotePath);
+                } finally {
+                    FtpUtil.invalidateMetadata(c, remotePath);
+                    connLock.unlock();
+                }
+            } finally {
+                pathLock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 一次上传尝试，从服务器上已有的大小处续传
+     */
+    private boolean uploadOnce(FtpConnection c, File localFile, String remotePath) throws IOException {
+        String remoteFileName = remotePath.substring(remotePath.lastIndexOf("/") + 1);
+        c.enterLocalPassiveMode();
+        c.setFileType(FTP.BINARY_FILE_TYPE);
+        FtpUtil.setFtpEncoding(c);
+        if (!FtpUtil.createDirecroty(remotePath, c)) {
+            return check(c, false);
+        }
+        //上次失败时已经写入的部分以服务器返回的大小为准，不能使用缓存
+        FtpUtil.invalidateMetadata(c, remotePath);
+        long remoteSize = Math.max(FtpUtil.size(c, remotePath), 0);
+        long localSize = localFile.length();
+        if (remoteSize > localSize) {
+            log.warn("远程文件大于本地文件：{}>{}", remoteSize, localSize);
+            return false;
+        }
+        if (remoteSize == localSize && localSize > 0) {
+            if (FtpUtil.sameContent(c, remoteFileName, localFile)) {
+                return true;
+            }
+            log.warn("远程文件【{}】和本地文件内容不一致，重新上传", remotePath);
+            if (!c.deleteFile(FtpUtil.encodeName(c, remoteFileName))) {
+                return check(c, false);
+            }
+            remoteSize = 0;
+        }
+        if (remoteSize > 0) {
+            log.info("文件【{}】从{}处续传", remotePath, remoteSize);
+        }
+        return check(c, FtpUtil.appendFile(remoteFileName, localFile, c, remoteSize));
+    }
+
+    /**
+     * 下载到本地文件，重试时从本地文件已写入的大小处续传
+     *
+     * @param conn
+     * @param remotePath 远程文件绝对路径
+     * @param localFile
+     * @return 远程文件不存在或校验不一致时返回false
+     * @throws IOException 重试次数用完或永久失败
+     */
+    public boolean download(FtpConnection conn, String remotePath, File localFile) throws IOException {
+        ReentrantLock connLock = FtpUtil.clientLock(conn);
+        return execute(conn, FtpMetrics.OP_DOWNLOAD, c -> {
+            connLock.lock();
+            try {
+                return check(c, FtpUtil.retrieveFile(c, remotePath, localFile));
+            } finally {
+                connLock.unlock();
+            }
+        });
+    }
+
+    /**
+     * 远程文件或目录是否存在
+     *
+     * @param conn
+     * @param remotePath 远程绝对路径
+     * @return
+     * @throws IOException 重试次数用完或永久失败
+     */
+    public boolean exists(FtpConnection conn, String remotePath) throws IOException {
+        return execute(conn, FtpMetrics.OP_EXISTS, c -> FtpUtil.exists(c, remotePath));
+    }
+
+    /**
+     * 删除远程文件，文件不存在返回false
+     *
+     * @param conn
+     * @param remotePath 远程文件绝对路径
+     * @return
+     * @throws IOException 重试次数用完或永久失败
+     */
+    public boolean delete(FtpConnection conn, String remotePath) throws IOException {
+        return execute(conn, FtpMetrics.OP_DELETE, c -> {
+            boolean flag = c.deleteFile(FtpUtil.encodeName(c, remotePath));
+            FtpUtil.invalidateMetadata(c, remotePath);
+            return check(c, flag);
+        });
+    }
+
+    /**
+     * 操作失败且回复码是临时失败时抛出异常触发重试，否则原样返回结果
+     *
+     * @param ftpClient
+     * @param success
+     * @return
+     * @throws FtpReplyException
+     */
+    private boolean check(FTPClient ftpClient, boolean success) throws FtpReplyException {
+        if (!success && policy.isTransient(ftpClient.getReplyCode())) {
+            throw new FtpReplyException(ftpClient.getReplyCode(), ftpClient.getReplyString());
+        }
+        return success;
+    }
+
+    /**
+     * 失败后连接是否还能继续使用：网络异常时控制连接上可能还有未读的回复，需要重连；
+     * 421表示服务器将关闭连接；其他回复码用NOOP确认
+     */
+    private static boolean usable(FtpConnection conn, Exception e) {
+        if (!(e instanceof FtpReplyException) || ((FtpReplyException) e).getReplyCode() == FTPReply.SERVICE_NOT_AVAILABLE) {
+            return false;
+        }
+        try {
+            return conn.isConnected() && conn.sendNoOp();
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * 重新连接并恢复会话
+     *
+     * @param conn
+     * @param session
+     * @throws IOException
+     */
+    private static void restore(FtpConnection conn, Session session) throws IOException {
+        if (conn.isConnected()) {
+            try {
+                conn.disconnect();
+            } catch (IOException e) {
+                log.debug("断开失效的ftp连接失败：{}", e.getMessage());
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            FtpUtil.openSession(conn);
+        } catch (IOException e) {
+            FtpMetrics.getRecorder().recordConnect(conn.getServerKey(), System.nanoTime() - start, false);
+            throw e;
+        }
+        FtpMetrics.getRecorder().recordConnect(conn.getServerKey(), System.nanoTime() - start, true);
+        if (session.passive) {
+            conn.enterLocalPassiveMode();
+        }
+        if (session.fileType != FTP.ASCII_FILE_TYPE && !conn.setFileType(session.fileType)) {
+            throw new FtpReplyException(conn.getReplyCode(), conn.getReplyString());
+        }
+        if (session.workingDirectory != null && !conn.changeWorkingDirectory(session.workingDirectory)) {
+            throw new FtpReplyException(conn.getReplyCode(), conn.getReplyString());
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待重试时被中断");
+        }
+    }
+
+    /**
+     * 断开前的会话状态，断开连接会清空这些状态，需要在断开前保存
+     */
+    private static class Session {
+        private final boolean passive;
+        private final int fileType;
+        //已转换编码的绝对路径
+        private final String workingDirectory;
+
+        /**
+         * 新连接，不需要恢复状态
+         */
+        private Session() {
+            this(false, FTP.ASCII_FILE_TYPE, null);
+        }
+
+        private Session(boolean passive, int fileType, String workingDirectory) {
+            this.passive = passive;
+            this.fileType = fileType;
+            this.workingDirectory = workingDirectory;
+        }
+
+        /**
+         * 连接已断开时取断开前保存的状态
+         */
+        private static Session of(FtpConnection conn) {
+            if (!conn.isConnected()) {
+                return new Session(conn.wasPassive(), conn.getLastFileType(), conn.getLastWorkingDirectory());
+            }
+            return new Session(conn.getDataConnectionMode() == FTPClient.PASSIVE_LOCAL_DATA_CONNECTION_MODE,
+                    conn.getFileType(), conn.getWorkingDirectory());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.ray.qjc.common.utils;
+
+import lombok.Data;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.EOFException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @ClassName FtpRetryPolicy
+ * @Description ftp重试策略：指数退避加随机抖动，4xx回复码和连接断开、超时为临时失败，5xx和本地文件异常等为永久失败
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Data
+public class FtpRetryPolicy {
+    //最多尝试次数，包括第一次
+    private int maxAttempts = 5;
+    //第一次重试前的等待时间(毫秒)
+    private long initialBackoffMillis = 200L;
+    //最长等待时间(毫秒)
+    private long maxBackoffMillis = 10000L;
+    //每次重试等待时间的倍数
+    private double multiplier = 2.0;
+
+    /**
+     * 回复码是否是临时失败，如421服务不可用、425无法打开数据连接、426传输中断、450文件忙
+     *
+     * @param replyCode
+     * @return
+     */
+    public boolean isTransient(int replyCode) {
+        return FTPReply.isNegativeTransient(replyCode);
+    }
+
+    /**
+     * 异常是否可以重试，服务器返回的失败按回复码判断，网络异常只有连接断开、连接失败和超时重试
+     * 本地文件读写失败、等待时被中断等其他IO异常重试也不会成功，直接失败
+     *
+     * @param e
+     * @return
+     */
+    public boolean isTransient(Throwable e) {
+        if (e instanceof FtpReplyException) {
+            return isTransient(((FtpReplyException) e).getReplyCode());
+        }
+        return e instanceof FTPConnectionClosedException
+                || e instanceof SocketException
+                || e instanceof SocketTimeoutException
+                || e instanceof EOFException;
+    }
+
+    /**
+     * 第attempt次重试前的等待时间，在[上限/2, 上限]之间随机，避免多个客户端同时重连
+     *
+     * @param attempt 从1开始
+     * @return
+     */
+    public long backoffMillis(int attempt) {
+        double ceiling = initialBackoffMillis * Math.pow(multiplier, Math.max(attempt - 1, 0));
+        long max = (long) Math.min(ceiling, maxBackoffMillis);
+        if (max <= 1) {
+            return Math.max(max, 0);
+        }
+        return max / 2 + ThreadLocalRandom.current().nextLong(max - max / 2 + 1);
+    }
+}
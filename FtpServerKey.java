@@ -0,0 +1,40 @@
+package com.ray.qjc.common.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.commons.net.ftp.FTPClient;
+
+import java.net.InetAddress;
+
+/**
+ * @ClassName FtpServerKey
+ * @Description ftp连接池的key，按 主机 + 端口 + 用户 + 密码 区分连接，密码错误时不会借到别人已登录的连接
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Getter
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString(exclude = "passWord")
+public class FtpServerKey {
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String passWord;
+
+    /**
+     * 获取连接对应的服务器，不是connectToFtp创建的连接按远程地址和端口区分
+     *
+     * @param ftpClient
+     * @return
+     */
+    public static FtpServerKey of(FTPClient ftpClient) {
+        if (ftpClient instanceof FtpConnection) {
+            return ((FtpConnection) ftpClient).getServerKey();
+        }
+        InetAddress address = ftpClient.isConnected() ? ftpClient.getRemoteAddress() : null;
+        return new FtpServerKey(address == null ? null : address.getHostAddress(), ftpClient.getRemotePort(), null, null);
+    }
+}
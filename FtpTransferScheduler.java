@@ -0,0 +1,280 @@
+package com.ray.qjc.common.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ClassName FtpTransferScheduler
+ * @Description 传输调度：按服务器限制同时传输数，按优先级出队，同一优先级下各租户轮流出队，排队数达到上限时拒绝或等待
+ * 交互式的小请求用HIGH优先级，批量任务用LOW优先级，批量任务再多也不会占满服务器的连接
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpTransferScheduler {
+    //默认每个服务器同时传输数
+    public static final int DEFAULT_MAX_CONCURRENT_PER_HOST = 4;
+    //默认每个服务器最多排队数
+    public static final int DEFAULT_MAX_QUEUED_PER_HOST = 1000;
+
+    private final FtpClientPool pool;
+    private final int maxConcurrentPerHost;
+    private final int maxQueuedPerHost;
+    private final Map<String, HostQueue> hosts = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private volatile boolean shutdown;
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    public FtpTransferScheduler() {
+        this(FtpClientPool.getDefault(), DEFAULT_MAX_CONCURRENT_PER_HOST, DEFAULT_MAX_QUEUED_PER_HOST);
+    }
+
+    /**
+     * @param pool                 连接池
+     * @param maxConcurrentPerHost 每个服务器同时传输数，不应超过连接池每个服务器的最大连接数
+     * @param maxQueuedPerHost     每个服务器最多排队数
+     */
+    public FtpTransferScheduler(FtpClientPool pool, int maxConcurrentPerHost, int maxQueuedPerHost) {
+        if (maxConcurrentPerHost <= 0 || maxQueuedPerHost <= 0) {
+            throw new IllegalArgumentException("同时传输数和排队数必须大于0");
+        }
+        this.pool = pool;
+        this.maxConcurrentPerHost = maxConcurrentPerHost;
+        this.maxQueuedPerHost = maxQueuedPerHost;
+        //线程数由每个服务器的同时传输数限制
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "ftp-transfer-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 提交传输，服务器排队已满时返回的future直接失败
+     *
+     * @param key      ftp服务器
+     * @param tenant   租户，同一优先级下不同租户轮流执行
+     * @param priority 优先级
+     * @param call     在连接上执行的操作
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<T> submit(FtpServerKey key, String tenant, Priority priority, FtpAsyncClient.FtpCall<T> call) {
+        return submit(key, tenant, priority, call, 0);
+    }
+
+    /**
+     * 提交传输，服务器排队已满时最多等待指定时间
+     *
+     * @param key           ftp服务器
+     * @param tenant        租户，同一优先级下不同租户轮流执行
+     * @param priority      优先级
+     * @param call          在连接上执行的操作
+     * @param timeoutMillis 排队已满时的等待时间
+     * @param <T>
+     * @return
+     */
+    public <T> CompletableFuture<T> submit(FtpServerKey key, String tenant, Priority priority,
+                                           FtpAsyncClient.FtpCall<T> call, long timeoutMillis) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        if (shutdown) {
+            future.completeExceptionally(new RejectedExecutionException("传输调度已关闭"));
+            return future;
+        }
+        HostQueue host = hosts.computeIfAbsent(hostOf(key), h -> new HostQueue());
+        try {
+            if (!host.capacity.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new RejectedExecutionException("服务器【" + hostOf(key) + "】传输排队已满"));
+                return future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        String tenantName = tenant == null ? "" : tenant;
+        host.offer(priority, tenantName, new Task(future, () -> {
+            try {
+                //租户的限速设置在连接上，归还连接池时清除
+                future.complete(FtpAsyncClient.callWithConnection(pool, key, conn -> {
+                    conn.setRateLimiter(FtpRateLimiter.tenant(tenantName));
+                    return call.call(conn);
+                }));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }));
+        dispatch(host);
+        return future;
+    }
+
+    /**
+     * 服务器有空闲名额时取出任务执行
+     *
+     * @param host
+     */
+    private void dispatch(HostQueue host) {
+        while (true) {
+            Task task;
+            synchronized (host) {
+                if (host.running >= maxConcurrentPerHost) {
+                    return;
+                }
+                task = host.poll();
+                if (task == null) {
+                    return;
+                }
+                host.running++;
+            }
+            host.capacity.release();
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.body.run();
+                    } finally {
+                        synchronized (host) {
+                            host.running--;
+                        }
+                        dispatch(host);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                synchronized (host) {
+                    host.running--;
+                }
+                //关闭后才提交或仍在排队的任务不会再执行，直接失败
+                task.future.completeExceptionally(e);
+                reject(host);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 服务器正在排队的传输数
+     *
+     * @param key
+     * @return
+     */
+    public int getQueuedCount(FtpServerKey key) {
+        HostQueue host = hosts.get(hostOf(key));
+        return host == null ? 0 : maxQueuedPerHost - host.capacity.availablePermits();
+    }
+
+    /**
+     * 服务器正在执行的传输数
+     *
+     * @param key
+     * @return
+     */
+    public int getRunningCount(FtpServerKey key) {
+        HostQueue host = hosts.get(hostOf(key));
+        if (host == null) {
+            return 0;
+        }
+        synchronized (host) {
+            return host.running;
+        }
+    }
+
+    /**
+     * 关闭调度，不再接收新任务，正在执行的任务继续执行完，还在排队的任务直接失败
+     */
+    public void shutdown() {
+        shutdown = true;
+        executor.shutdown();
+        for (HostQueue host : hosts.values()) {
+            reject(host);
+        }
+    }
+
+    /**
+     * 取出服务器排队中的所有任务，让任务的future失败
+     *
+     * @param host
+     */
+    private void reject(HostQueue host) {
+        Task task;
+        while ((task = host.poll()) != null) {
+            host.capacity.release();
+            task.future.completeExceptionally(new RejectedExecutionException("传输调度已关闭"));
+        }
+    }
+
+    /**
+     * 同一主机的不同用户共用连接名额
+     */
+    private static String hostOf(FtpServerKey key) {
+        return key.getHost() + ":" + key.getPort();
+    }
+
+    /**
+     * 单个服务器的排队，每个优先级下按租户分别排队，租户按轮转顺序出队
+     */
+    private class HostQueue {
+        private final Semaphore capacity = new Semaphore(maxQueuedPerHost);
+        private final Map<Priority, LinkedHashMap<String, Deque<Task>>> queues = new EnumMap<>(Priority.class);
+        private int running;
+
+        private HostQueue() {
+            for (Priority priority : Priority.values()) {
+                queues.put(priority, new LinkedHashMap<>());
+            }
+        }
+
+        private synchronized void offer(Priority priority, String tenant, Task task) {
+            queues.get(priority).computeIfAbsent(tenant, t -> new ArrayDeque<>()).addLast(task);
+        }
+
+        /**
+         * 取优先级最高的非空队列，取第一个租户的任务后把该租户移到末尾
+         */
+        private synchronized Task poll() {
+            for (LinkedHashMap<String, Deque<Task>> tenants : queues.values()) {
+                Iterator<Map.Entry<String, Deque<Task>>> iterator = tenants.entrySet().iterator();
+                if (!iterator.hasNext()) {
+                    continue;
+                }
+                Map.Entry<String, Deque<Task>> entry = iterator.next();
+                Task task = entry.getValue().pollFirst();
+                iterator.remove();
+                if (!entry.getValue().isEmpty()) {
+                    tenants.put(entry.getKey(), entry.getValue());
+                }
+                return task;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 排队的任务，调度关闭时通过future通知提交方
+     */
+    private static class Task {
+        private final CompletableFuture<?> future;
+        private final Runnable body;
+
+        private Task(CompletableFuture<?> future, Runnable body) {
+            this.future = future;
+            this.body = body;
+        }
+    }
+}
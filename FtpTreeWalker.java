@@ -0,0 +1,156 @@
+package com.ray.qjc.common.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @ClassName FtpTreeWalker
+ * @Description 递归遍历远程目录树，按层并行：同一层的目录由连接池中的多个连接同时列出
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpTreeWalker {
+
+    private FtpTreeWalker() {
+    }
+
+    /**
+     * 使用默认连接池遍历目录树
+     *
+     * @param key         ftp服务器
+     * @param rootDir     根目录绝对路径
+     * @param parallelism 并行连接数
+     * @return 根目录下所有文件和目录，不包含根目录本身，上层目录排在下层之前
+     * @throws IOException
+     */
+    public static List<Entry> walk(FtpServerKey key, String rootDir, int parallelism) throws IOException {
+        return walk(FtpClientPool.getDefault(), key, rootDir, parallelism);
+    }
+
+    /**
+     * 遍历目录树，符号链接不会继续深入，避免循环
+     *
+     * @param pool        连接池
+     * @param key         ftp服务器
+     * @param rootDir     根目录绝对路径
+     * @param parallelism 并行连接数
+     * @return 根目录下所有文件和目录，不包含根目录本身，上层目录排在下层之前
+     * @throws IOException
+     */
+    public static List<Entry> walk(FtpClientPool pool, FtpServerKey key, String rootDir, int parallelism) throws IOException {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("并行数必须大于0");
+        }
+        List<Entry> result = new ArrayList<>();
+        List<String> level = Collections.singletonList(trimSlash(rootDir));
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "ftp-tree-walk-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            int depth = 1;
+            while (!level.isEmpty()) {
+                List<Future<List<Entry>>> futures = new ArrayList<>(level.size());
+                for (String dir : level) {
+                    int d = depth;
+                    futures.add(executor.submit(() -> listChildren(pool, key, dir, d)));
+                }
+                List<String> next = new ArrayList<>();
+                for (Future<List<Entry>> future : futures) {
+                    for (Entry entry : future.get()) {
+                        result.add(entry);
+                        if (entry.isDirectory()) {
+                            next.add(entry.getPath());
+                        }
+                    }
+                }
+                level = next;
+                depth++;
+            }
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("遍历目录【" + rootDir + "】失败", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("遍历目录【" + rootDir + "】被中断");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 列出单个目录
+     *
+     * @param pool
+     * @param key
+     * @param dir
+     * @param depth
+     * @return
+     * @throws IOException
+     */
+    private static List<Entry> listChildren(FtpClientPool pool, FtpServerKey key, String dir, int depth) throws IOException {
+        FtpConnection conn = pool.borrow(key);
+        try {
+            conn.enterLocalPassiveMode();
+            List<Entry> children = new ArrayList<>();
+            FtpFileIterator iterator = FtpFileIterator.open(conn, FtpUtil.normalizePath(FtpUtil.encodeName(conn, dir)));
+            try {
+                while (iterator.hasNext()) {
+                    FTPFile file = iterator.next();
+                    children.add(new Entry(dir + "/" + file.getName(), depth, file));
+                }
+            } catch (IllegalStateException e) {
+                throw new IOException(e.getMessage(), e.getCause());
+            } finally {
+                iterator.close();
+            }
+            pool.release(conn);
+            return children;
+        } catch (IOException e) {
+            log.error("列出目录【{}】失败", dir, e);
+            pool.invalidate(conn);
+            throw e;
+        }
+    }
+
+    private static String trimSlash(String dir) {
+        return dir.endsWith("/") ? dir.substring(0, dir.length() - 1) : dir;
+    }
+
+    /**
+     * 目录树中的一个文件或目录
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        //绝对路径
+        private final String path;
+        //相对根目录的层级，根目录的直接子项为1
+        private final int depth;
+        private final FTPFile file;
+
+        public boolean isDirectory() {
+            return file.isDirectory();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.ray.qjc.common.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * @ClassName FtpUploadJournal
+ * @Description 分片上传的本地日志，只追加写入：文件头记录本地文件和分片信息，每上传完一个分片追加一条记录(序号、偏移、长度、md5)，
+ * 合并完成后追加合并标记；服务重启后据此只上传缺少的分片，每条记录带CRC，写到一半的记录在打开时截掉
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@Slf4j
+public class FtpUploadJournal implements Closeable {
+    private static final int MAGIC = 0x46544A31;
+    //分片记录：序号4 + 偏移8 + 长度8 + md5 32 + CRC 4
+    private static final int RECORD_SIZE = 56;
+    private static final int MD5_LENGTH = 32;
+    //合并完成标记的序号
+    private static final int MERGED = -1;
+
+    private final File file;
+    private final FileChannel channel;
+    private final Map<Integer, Part> parts = new TreeMap<>();
+    private boolean merged;
+
+    private FtpUploadJournal(File file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * 打开日志，本地文件大小、修改时间、分片大小或远程路径和日志记录的不一致时清空重新开始
+     *
+     * @param journalFile 日志文件
+     * @param localFile   本地文件
+     * @param remotePath  远程文件绝对路径
+     * @param chunkSize   分片大小
+     * @return
+     * @throws IOException
+     */
+    public static FtpUploadJournal open(File journalFile, File localFile, String remotePath, long chunkSize) throws IOException {
+        byte[] header = header(localFile, remotePath, chunkSize);
+        FileChannel channel = new RandomAccessFile(journalFile, "rw").getChannel();
+        FtpUploadJournal journal = new FtpUploadJournal(journalFile, channel);
+        try {
+            if (journal.matches(header)) {
+                journal.load(header.length);
+                log.info("从日志恢复分片上传【{}】，已完成{}个分片", remotePath, journal.parts.size());
+            } else {
+                channel.truncate(0);
+                journal.write(ByteBuffer.wrap(header), 0);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * 文件头：魔数、文件大小、修改时间、分片大小、远程路径，最后是CRC
+     */
+    private static byte[] header(File localFile, String remotePath, long chunkSize) {
+        byte[] path = remotePath.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 8 + 8 + 8 + 4 + path.length + 4);
+        buffer.putInt(MAGIC).putLong(localFile.length()).putLong(localFile.lastModified()).putLong(chunkSize)
+                .putInt(path.length).put(path);
+        buffer.putInt(crc(buffer.array(), buffer.position()));
+        return buffer.array();
+    }
+
+    private boolean matches(byte[] header) throws IOException {
+        if (channel.size() < header.length) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(header.length);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+            //读满文件头
+        }
+        return Arrays.equals(buffer.array(), header);
+    }
+
+    /**
+     * 读取分片记录，遇到不完整或CRC不对的记录时截掉后面的内容
+     */
+    private void load(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        long size = channel.size();
+        while (position + RECORD_SIZE <= size) {
+            buffer.clear();
+            while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+                //读满一条记录
+            }
+            if (buffer.getInt(RECORD_SIZE - 4) != crc(buffer.array(), RECORD_SIZE - 4)) {
+                break;
+            }
+            buffer.flip();
+            int index = buffer.getInt();
+            long offset = buffer.getLong();
+            long length = buffer.getLong();
+            byte[] md5 = new byte[MD5_LENGTH];
+            buffer.get(md5);
+            if (index == MERGED) {
+                merged = true;
+            } else {
+                parts.put(index, new Part(index, offset, length, new String(md5, StandardCharsets.US_ASCII)));
+            }
+            position += RECORD_SIZE;
+        }
+        if (position < size) {
+            log.warn("上传日志【{}】末尾有不完整的记录，已截掉", file.getName());
+            channel.truncate(position);
+        }
+    }
+
+    /**
+     * 已完成的分片，按序号排序
+     *
+     * @return
+     */
+    public synchronized Map<Integer, Part> getCompletedParts() {
+        return Collections.unmodifiableMap(new TreeMap<>(parts));
+    }
+
+    /**
+     * 分片是否都已经合并，合并后删除分片前重启时为true
+     *
+     * @return
+     */
+    public synchronized boolean isMerged() {
+        return merged;
+    }
+
+    /**
+     * 记录一个上传完成的分片，写入后刷到磁盘
+     *
+     * @param index
+     * @param offset
+     * @param length
+     * @param md5    小写十六进制
+     * @throws IOException
+     */
+    public synchronized void recordPart(int index, long offset, long length, String md5) throws IOException {
+        if (md5 == null || md5.length() != MD5_LENGTH) {
+            throw new IllegalArgumentException("md5长度必须为" + MD5_LENGTH);
+        }
+        append(index, offset, length, md5);
+        parts.put(index, new Part(index, offset, length, md5));
+    }
+
+    /**
+     * 记录分片已合并
+     *
+     * @throws IOException
+     */
+    public synchronized void recordMerged() throws IOException {
+        append(MERGED, 0, 0, null);
+        merged = true;
+    }
+
+    /**
+     * 分片在服务器上已经不可用，从内存中移除，后续重新上传后会追加新的记录
+     *
+     * @param index
+     */
+    public synchronized void forget(int index) {
+        parts.remove(index);
+    }
+
+    private void append(int index, long offset, long length, String md5) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.putInt(index).putLong(offset).putLong(length);
+        for (int i = 0; i < MD5_LENGTH; i++) {
+            buffer.put(md5 == null ? (byte) '0' : (byte) md5.charAt(i));
+        }
+        buffer.putInt(crc(buffer.array(), RECORD_SIZE - 4));
+        buffer.flip();
+        write(buffer, channel.size());
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        channel.force(false);
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(bytes, 0, length);
+        return (int) crc32.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * 上传完成后关闭并删除日志
+     *
+     * @return
+     */
+    public boolean delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            log.warn("关闭上传日志【{}】失败", file.getName(), e);
+        }
+        return file.delete();
+    }
+
+    /**
+     * 已完成的分片
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Part {
+        private final int index;
+        private final long offset;
+        private final long length;
+        //小写十六进制
+        private final String md5;
+    }
+}
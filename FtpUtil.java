@@ -9,11 +9,16 @@ import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPReply;
-import org.apache.poi.util.IOUtils;
+import org.apache.commons.net.ftp.parser.MLSxEntryParser;
 import org.springframework.util.CollectionUtils;
 
 import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 /**
@@ -27,8 +32,9 @@ import java.util.stream.Collectors;
 @Data
 @Slf4j
 public class FtpUtil {
-    //本地字符编码
-    private static String LOCAL_CHARSET = "GBK";
+    //本地字符编码，服务器不支持UTF-8时使用
+    private static final String LOCAL_CHARSET = "GBK";
+    private static final String UTF8_CHARSET = "UTF-8";
     // FTP协议里面，规定文件名编码为iso-8859-1
     private static String SERVER_CHARSET = "ISO-8859-1";
 
@@ -37,6 +43,26 @@ public class FtpUtil {
     public static final String JPG = "jpg";
     public static final String PNG = "png";
 
+    //流复制使用的缓冲区大小，可通过setBufferSize调整
+    private static volatile int bufferSize = 64 * 1024;
+    //传输后是否和服务器计算的校验值比较，服务器不支持HASH/XMD5/XCRC时不校验，可通过setVerifyTransfers关闭
+    private static volatile boolean verifyTransfers = true;
+
+    //按远程路径分段加锁，同一路径的上传/重命名串行执行，不同路径之间互不影响
+    //锁在网络读写期间持有，使用ReentrantLock而不是synchronized，虚拟线程等待时不会占住载体线程
+    private static final ReentrantLock[] PATH_LOCKS = new ReentrantLock[64];
+    //不是FtpConnection的客户端按对象分段加锁
+    private static final ReentrantLock[] CLIENT_LOCKS = new ReentrantLock[64];
+
+    static {
+        for (int i = 0; i < PATH_LOCKS.length; i++) {
+            PATH_LOCKS[i] = new ReentrantLock();
+        }
+        for (int i = 0; i < CLIENT_LOCKS.length; i++) {
+            CLIENT_LOCKS[i] = new ReentrantLock();
+        }
+    }
+
     /**
      * 连接到ftp服务器
      *
@@ -47,47 +73,178 @@ public class FtpUtil {
      * @return
      */
     public static FTPClient connectToFtp(String host, int port, String user, String passWord) {
-        int reply;
         FTPClient ftpClient;
+        FtpServerKey key = new FtpServerKey(host, port, user, passWord);
+        long start = System.nanoTime();
         try {
-            ftpClient = new FTPClient();
-            ftpClient.connect(host, port);
-            ftpClient.login(user, passWord);
-            reply = ftpClient.getReplyCode();
-            if (!FTPReply.isPositiveCompletion(reply)) {
-                ftpClient.disconnect();
-                log.info("连接不上ftp服务器，错误码：{}", reply);
-                return null;
-            }
+            ftpClient = new FtpConnection(key);
+            openSession((FtpConnection) ftpClient);
+        } catch (FtpReplyException e) {
+            log.info("连接不上ftp服务器，错误码：{}", e.getReplyCode());
+            FtpMetrics.getRecorder().recordConnect(key, System.nanoTime() - start, false);
+            return null;
         } catch (Exception e) {
             log.error("登录ftp服务器【" + host + "】失败", e);
+            FtpMetrics.getRecorder().recordConnect(key, System.nanoTime() - start, false);
             return null;
         }
+        FtpMetrics.getRecorder().recordConnect(key, System.nanoTime() - start, true);
         return ftpClient;
     }
 
+    /**
+     * 连接并登录，登录后协商一次编码，保存在连接上，后续操作不再发送OPTS
+     * 失败时断开连接，服务器拒绝时抛出带回复码的FtpReplyException，由调用方判断是否重试
+     *
+     * @param conn
+     * @throws IOException
+     */
+    static void openSession(FtpConnection conn) throws IOException {
+        FtpServerKey key = conn.getServerKey();
+        //控制连接的读写流在connect时按当前编码创建，路径已经由encodeName转成ISO-8859-1，
+        //重连时要先恢复成ISO-8859-1，否则会按上次协商的编码再转一次
+        conn.setControlEncoding(SERVER_CHARSET);
+        try {
+            conn.connect(key.getHost(), key.getPort());
+            if (!FTPReply.isPositiveCompletion(conn.getReplyCode())) {
+                throw new FtpReplyException(conn.getReplyCode(), conn.getReplyString());
+            }
+            conn.login(key.getUser(), key.getPassWord());
+            if (!FTPReply.isPositiveCompletion(conn.getReplyCode())) {
+                throw new FtpReplyException(conn.getReplyCode(), conn.getReplyString());
+            }
+            conn.setLocalCharset(null);
+            negotiateCharset(conn);
+        } catch (IOException e) {
+            if (conn.isConnected()) {
+                try {
+                    conn.disconnect();
+                } catch (IOException ignored) {
+                    //连接已经不可用
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 从默认连接池借一个已登录的ftp连接，用完后调用returnToPool或closeConnect归还
+     *
+     * @param host
+     * @param port
+     * @param user
+     * @param passWord
+     * @return
+     */
+    public static FTPClient borrowFromPool(String host, int port, String user, String passWord) {
+        try {
+            return FtpClientPool.getDefault().borrow(new FtpServerKey(host, port, user, passWord));
+        } catch (IOException e) {
+            log.error("从连接池获取ftp服务器【" + host + "】连接失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 归还连接到连接池，不是连接池借出的连接直接关闭
+     *
+     * @param ftpClient
+     */
+    public static void returnToPool(FTPClient ftpClient) {
+        if (isPooled(ftpClient)) {
+            FtpConnection conn = (FtpConnection) ftpClient;
+            conn.getPool().release(conn);
+        } else {
+            closeConnect(ftpClient);
+        }
+    }
+
+    /**
+     * 是否是连接池借出的连接
+     *
+     * @param ftpClient
+     * @return
+     */
+    static boolean isPooled(FTPClient ftpClient) {
+        return ftpClient instanceof FtpConnection && ((FtpConnection) ftpClient).isPooled();
+    }
+
     /**
      * 开启服务器对UTF-8的支持
      * 判断并设置编码为utf-8或者本地编码
+     * 已经协商过编码的连接直接跳过，不再发送OPTS
      *
      * @param ftpClient
      * @throws IOException
      */
-    private static void setFtpEncoding(FTPClient ftpClient) throws IOException {
+    static void setFtpEncoding(FTPClient ftpClient) throws IOException {
+        if (ftpClient instanceof FtpConnection) {
+            FtpConnection conn = (FtpConnection) ftpClient;
+            if (conn.getLocalCharset() == null) {
+                negotiateCharset(conn);
+            }
+            return;
+        }
+        String charset = LOCAL_CHARSET;
         if (FTPReply.isPositiveCompletion(ftpClient.sendCommand("OPTS UTF8", "ON"))) {
-            LOCAL_CHARSET = "UTF-8";
+            charset = UTF8_CHARSET;
+        }
+        ftpClient.setControlEncoding(charset);
+    }
+
+    /**
+     * 和服务器协商编码，结果保存在连接上
+     *
+     * @param conn
+     * @throws IOException
+     */
+    private static void negotiateCharset(FtpConnection conn) throws IOException {
+        String charset = LOCAL_CHARSET;
+        if (FTPReply.isPositiveCompletion(conn.sendCommand("OPTS UTF8", "ON"))) {
+            charset = UTF8_CHARSET;
         }
-        ftpClient.setControlEncoding(LOCAL_CHARSET);
+        conn.setControlEncoding(charset);
+        conn.setLocalCharset(charset);
+    }
+
+    /**
+     * 获取连接使用的本地编码
+     *
+     * @param ftpClient
+     * @return
+     */
+    private static String getLocalCharset(FTPClient ftpClient) {
+        if (ftpClient instanceof FtpConnection && ((FtpConnection) ftpClient).getLocalCharset() != null) {
+            return ((FtpConnection) ftpClient).getLocalCharset();
+        }
+        return UTF8_CHARSET.equals(ftpClient.getControlEncoding()) ? UTF8_CHARSET : LOCAL_CHARSET;
+    }
+
+    /**
+     * 按连接的编码转换文件名，FTP协议里面，规定文件名编码为iso-8859-1
+     *
+     * @param ftpClient
+     * @param name
+     * @return
+     * @throws UnsupportedEncodingException
+     */
+    static String encodeName(FTPClient ftpClient, String name) throws UnsupportedEncodingException {
+        return new String(name.getBytes(getLocalCharset(ftpClient)), SERVER_CHARSET);
     }
 
     /**
-     * 关闭当前ftp连接
+     * 关闭当前ftp连接，连接池借出的连接会归还到连接池
      *
      * @param ftpClient
      */
     public static void closeConnect(FTPClient ftpClient) {
+        if (isPooled(ftpClient)) {
+            returnToPool(ftpClient);
+            return;
+        }
         try {
-            if (ftpClient != null) {
+            //传输异常时连接已经断开
+            if (ftpClient != null && ftpClient.isConnected()) {
                 ftpClient.logout();
                 ftpClient.disconnect();
             }
@@ -106,6 +263,8 @@ public class FtpUtil {
      */
     public static boolean uploadFile(InputStream inputStream, FTPClient ftpClient, String fileName, String remoteFilePath) {
         boolean returnValue = false;
+        long start = System.nanoTime();
+        CountingInputStream counting = new CountingInputStream(inputStream);
         // 上传文件
         try {
             //被动模式，开启端口传输数据
@@ -114,13 +273,20 @@ public class FtpUtil {
             ftpClient.setFileType(FTPClient.BINARY_FILE_TYPE);
             //判断并设置ftp编码为utf-8或者本地编码
             setFtpEncoding(ftpClient);
-            createDirecroty(remoteFilePath, ftpClient);
+            if (!createDirecroty(remoteFilePath, ftpClient)) {
+                return false;
+            }
 
             // 上传文件到ftp
-            returnValue = ftpClient.storeFile(new String(fileName.getBytes(LOCAL_CHARSET), SERVER_CHARSET), inputStream);
-
+            returnValue = ftpClient.storeFile(encodeName(ftpClient, fileName), FtpRateLimiter.throttle(ftpClient, counting));
+            invalidateMetadata(ftpClient, remoteFilePath.substring(0, remoteFilePath.lastIndexOf("/") + 1) + fileName);
+            recordTransfer(ftpClient, FtpMetrics.OP_UPLOAD, counting.getCount(), start, returnValue);
         } catch (Exception e) {
             log.error("上传文件到服务器失败", e);
+            recordError(ftpClient, FtpMetrics.OP_UPLOAD, counting.getCount(), start);
+            if (e instanceof IOException) {
+                abortTransfer(ftpClient);
+            }
         } finally {
             try {
                 if (inputStream != null) {
@@ -142,7 +308,25 @@ public class FtpUtil {
      * @return
      * @throws Exception
      */
-    public synchronized static APIResponse upload(FTPClient ftpClient, File file, String remote) throws Exception {
+    public static APIResponse upload(FTPClient ftpClient, File file, String remote) throws Exception {
+        //先锁远程路径再锁连接，和renameFile保持同样的加锁顺序
+        ReentrantLock pathLock = pathLock(remote);
+        ReentrantLock clientLock = clientLock(ftpClient);
+        pathLock.lock();
+        try {
+            clientLock.lock();
+            try {
+                return doUpload(ftpClient, file, remote);
+            } finally {
+                invalidateMetadata(ftpClient, remote);
+                clientLock.unlock();
+            }
+        } finally {
+            pathLock.unlock();
+        }
+    }
+
+    private static APIResponse doUpload(FTPClient ftpClient, File file, String remote) throws Exception {
         // 设置PassiveMode传输
         ftpClient.enterLocalPassiveMode();
         // 设置以二进制流的方式传输
@@ -157,16 +341,25 @@ public class FtpUtil {
         log.info("-------------------");
 
         // 创建服务器远程目录
-        createDirecroty(remote, ftpClient);
+        if (!createDirecroty(remote, ftpClient)) {
+            throw new IOException("创建远程目录失败：" + ftpClient.getReplyString().trim());
+        }
 
-        // 检查远程是否存在文件
-        FTPFile[] files = ftpClient.listFiles(new String(remoteFileName.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-        if (files.length == 1) {
-            long remoteSize = files[0].getSize();
+        // 检查远程是否存在文件，续传位置必须以服务器当前的大小为准，不能用缓存
+        invalidateMetadata(ftpClient, remote);
+        long remoteSize = size(ftpClient, remote);
+        if (remoteSize >= 0) {
             long localSize = file.length();
-            if (remoteSize == localSize) {
-                log.warn("文件【{}】已存在", files[0]);
+            if (remoteSize == localSize && sameContent(ftpClient, remoteFileName, file)) {
+                log.warn("文件【{}】已存在", remote);
                 return APIResponse.returnSuccess();
+            } else if (remoteSize == localSize) {
+                //大小相同内容不同，删除后重新上传
+                log.warn("远程文件【{}】和本地文件内容不一致，重新上传", remote);
+                remoteSize = 0;
+                if (!ftpClient.deleteFile(encodeName(ftpClient, remoteFileName))) {
+                    return APIResponse.returnFail(EventEnum.DELETE_REMOTE_FAILD);
+                }
             } else if (remoteSize > localSize) {
                 log.warn("远程文件大于本地文件：{}>{}", remoteSize, localSize);
                 return APIResponse.returnFail(EventEnum.REMOTE_ISBIGGERTHAN_LOCAL);
@@ -177,19 +370,45 @@ public class FtpUtil {
 
             // 如果断点续传没有成功，则删除服务器上文件，重新上传
             if (!result) {
-                if (!ftpClient.deleteFile(remoteFileName)) {
+                if (!ftpClient.deleteFile(encodeName(ftpClient, remoteFileName))) {
                     return APIResponse.returnFail(EventEnum.DELETE_REMOTE_FAILD);
                 }
-                uploadFile(remoteFileName, file, ftpClient, 0);
+                result = uploadFile(remoteFileName, file, ftpClient, 0);
             }
         } else {
-            uploadFile(remoteFileName, file, ftpClient, 0);
+            result = uploadFile(remoteFileName, file, ftpClient, 0);
+        }
+        //传输失败或上传后校验不一致
+        if (!result) {
+            log.error("上传文件【{}】失败", remote);
+            return APIResponse.returnFail("上传失败");
         }
         return APIResponse.returnSuccess("上传成功");
     }
 
+    /**
+     * 远程文件和本地文件内容是否一致，关闭校验或服务器不能计算校验值时只能按大小判断，认为一致
+     *
+     * @param ftpClient
+     * @param remoteFile 当前目录下的文件名
+     * @param localFile
+     * @return
+     * @throws IOException
+     */
+    static boolean sameContent(FTPClient ftpClient, String remoteFile, File localFile) throws IOException {
+        FtpChecksum.Algorithm algorithm = verifyAlgorithm(ftpClient);
+        if (algorithm == null) {
+            return true;
+        }
+        String remoteHash = FtpChecksum.serverHash(ftpClient, encodeName(ftpClient, remoteFile), algorithm);
+        return remoteHash == null || remoteHash.equals(FtpChecksum.digestFile(localFile, localFile.length(), algorithm).hex());
+    }
+
     /**
      * 断点续传
+     * 本地文件通过FileChannel读取，数据连接支持时直接transferTo到socket，否则使用可配置大小的缓冲区
+     * 开启校验且服务器能计算校验值时，传输完成后和服务器的校验值比较：零拷贝时传输后再读一遍本地文件计算摘要，
+     * 否则边传边计算
      *
      * @param remoteFile
      * @param localFile
@@ -199,42 +418,189 @@ public class FtpUtil {
      * @throws IOException
      */
     public static boolean uploadFile(String remoteFile, File localFile, FTPClient ftpClient, long remoteSize) throws IOException {
-        boolean status;
+        boolean status = appendFile(remoteFile, localFile, ftpClient, remoteSize);
+        //释放ftp客户端，连接池借出的连接由调用方归还
+        if (!isPooled(ftpClient)) {
+            closeConnect(ftpClient);
+        }
+        return status;
+    }
+
+    /**
+     * 从remoteSize处续传本地文件，不关闭连接，失败时保留服务器的回复码供重试判断
+     *
+     * @param remoteFile 当前目录下的文件名
+     * @param localFile
+     * @param ftpClient
+     * @param remoteSize 服务器上已有的大小
+     * @return
+     * @throws IOException
+     */
+    static boolean appendFile(String remoteFile, File localFile, FTPClient ftpClient, long remoteSize) throws IOException {
+        long localSize = localFile.length();
         // 显示进度的上传
-        long step = localFile.length() / 100;
+        long step = Math.max(localSize / 100, 1);
         long process = 0;
         long localreadbytes = 0L;
+        long start = System.nanoTime();
+        FtpChecksum.Algorithm algorithm = verifyAlgorithm(ftpClient);
+        FtpChecksum.Digest digest = null;
         RandomAccessFile raf = new RandomAccessFile(localFile, "r");
-        OutputStream out = ftpClient.appendFileStream(new String(remoteFile.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-        // 断点续传
-        if (remoteSize > 0) {
-            ftpClient.setRestartOffset(remoteSize);
-            process = remoteSize / step;
-            raf.seek(remoteSize);
-            localreadbytes = remoteSize;
-        }
-        byte[] bytes = new byte[1024];
-        int c;
-        while ((c = raf.read(bytes)) != -1) {
-            out.write(bytes, 0, c);
-            localreadbytes += c;
-            if (localreadbytes / step != process) {
-                process = localreadbytes / step;
-                log.info("上传进度:" + process);
-            }
-        }
-        out.flush();
-        raf.close();
-        out.close();
+        OutputStream out = null;
+        try {
+            FileChannel channel = raf.getChannel();
+            out = ftpClient.appendFileStream(encodeName(ftpClient, remoteFile));
+            if (out == null) {
+                log.error("打开远程文件【{}】失败：{}", remoteFile, ftpClient.getReplyString());
+                recordTransfer(ftpClient, FtpMetrics.OP_UPLOAD, 0, start, false);
+                return false;
+            }
+            // 断点续传，APPE本身就是追加写入，不能再设置REST，否则会带到下一条传输命令上
+            if (remoteSize > 0) {
+                process = remoteSize / step;
+                localreadbytes = remoteSize;
+            }
+            FtpRateLimiter.Throttle throttle = FtpRateLimiter.throttle(ftpClient);
+            SocketChannel socketChannel = binaryDataChannel(ftpClient);
+            if (socketChannel != null) {
+                //零拷贝，文件数据由内核直接发送到数据连接
+                while (localreadbytes < localSize) {
+                    long n = channel.transferTo(localreadbytes, Math.min(bufferSize, localSize - localreadbytes), socketChannel);
+                    localreadbytes += n;
+                    throttle.acquire(n);
+                    if (localreadbytes / step != process) {
+                        process = localreadbytes / step;
+                        log.info("上传进度:{}", process);
+                    }
+                }
+            } else {
+                //续传时已经上传的部分从本地补算摘要
+                digest = algorithm == null ? null : FtpChecksum.digestFile(localFile, remoteSize, algorithm);
+                ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+                int c;
+                while ((c = channel.read(buffer, localreadbytes)) != -1) {
+                    out.write(buffer.array(), 0, c);
+                    if (digest != null) {
+                        digest.update(buffer.array(), 0, c);
+                    }
+                    throttle.acquire(c);
+                    buffer.clear();
+                    localreadbytes += c;
+                    if (localreadbytes / step != process) {
+                        process = localreadbytes / step;
+                        log.info("上传进度:{}", process);
+                    }
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            recordError(ftpClient, FtpMetrics.OP_UPLOAD, localreadbytes - Math.max(remoteSize, 0), start);
+            if (out != null) {
+                abortTransfer(ftpClient);
+                closeQuietly(out);
+                out = null;
+            }
+            throw e;
+        } finally {
+            raf.close();
+            if (out != null) {
+                out.close();
+            }
+        }
         boolean result = ftpClient.completePendingCommand();
-        if (remoteSize > 0) {
-            status = result ? true : false;
-        } else {
-            status = result ? true : false;
+        if (result && algorithm != null) {
+            String remoteHash = FtpChecksum.serverHash(ftpClient, encodeName(ftpClient, remoteFile), algorithm);
+            //零拷贝时数据不经过用户态，再读一遍本地文件计算摘要
+            String localHash = (digest != null ? digest : FtpChecksum.digestFile(localFile, localSize, algorithm)).hex();
+            if (remoteHash != null && !remoteHash.equals(localHash)) {
+                log.error("上传文件【{}】校验失败：本地{}，服务器{}", remoteFile, localHash, remoteHash);
+                result = false;
+            }
         }
-        //释放ftp客户端
-        closeConnect(ftpClient);
-        return status;
+        recordTransfer(ftpClient, FtpMetrics.OP_UPLOAD, localreadbytes - Math.max(remoteSize, 0), start, result);
+        invalidateRelative(ftpClient, encodeName(ftpClient, remoteFile));
+        return result;
+    }
+
+    /**
+     * 获取当前二进制传输的数据连接通道，不支持时返回null
+     *
+     * @param ftpClient
+     * @return
+     */
+    private static SocketChannel binaryDataChannel(FTPClient ftpClient) {
+        if (!(ftpClient instanceof FtpConnection)) {
+            return null;
+        }
+        FtpConnection conn = (FtpConnection) ftpClient;
+        Socket socket = conn.getDataSocket();
+        if (conn.getFileType() != FTP.BINARY_FILE_TYPE || socket == null) {
+            return null;
+        }
+        return socket.getChannel();
+    }
+
+    /**
+     * 传输中途异常时控制连接上还有这次传输的结束回复没有读取，继续使用会把它当作下一条命令的回复，
+     * 直接断开连接，连接池的连接归还时会被丢弃，FtpRetrier会重新连接
+     *
+     * @param ftpClient
+     */
+    static void abortTransfer(FTPClient ftpClient) {
+        try {
+            ftpClient.disconnect();
+        } catch (IOException e) {
+            log.debug("断开ftp连接失败：{}", e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("关闭传输流失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 设置流传输使用的缓冲区大小
+     *
+     * @param size
+     */
+    public static void setBufferSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("缓冲区大小必须大于0");
+        }
+        bufferSize = size;
+    }
+
+    public static int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * 设置传输后是否校验，关闭后只按大小判断文件是否一致
+     * 校验时服务器要把文件完整读一遍计算校验值，零拷贝上传时本地也要再读一遍文件计算摘要
+     *
+     * @param verify
+     */
+    public static void setVerifyTransfers(boolean verify) {
+        verifyTransfers = verify;
+    }
+
+    public static boolean isVerifyTransfers() {
+        return verifyTransfers;
+    }
+
+    /**
+     * 传输后校验使用的算法，关闭校验或服务器不支持时返回null
+     *
+     * @param ftpClient
+     * @return
+     * @throws IOException
+     */
+    private static FtpChecksum.Algorithm verifyAlgorithm(FTPClient ftpClient) throws IOException {
+        return verifyTransfers ? FtpChecksum.serverAlgorithm(ftpClient) : null;
     }
 
     /**
@@ -260,18 +626,277 @@ public class FtpUtil {
             ftpClient.enterLocalPassiveMode();
             // 判断并设置ftp编码为utf-8或者本地编码
             setFtpEncoding(ftpClient);
-            //cd到根目录
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(dir.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
+            changeDirectory(ftpClient, dir);
 
             // 检验文件是否存在
-            inputStream = ftpClient.retrieveFileStream(new String(file.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
+            inputStream = ftpClient.retrieveFileStream(encodeName(ftpClient, file));
+            if (inputStream != null) {
+                inputStream = FtpRateLimiter.throttle(ftpClient, inputStream);
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
         return inputStream;
     }
 
+    /**
+     * 下载文件到本地，支持断点续传
+     * 本地已有部分文件时，从本地文件大小处继续下载并追加，下载完成后校验文件大小
+     *
+     * @param ftpClient
+     * @param remoteFilePath 远程文件绝对路径
+     * @param localFile      本地文件
+     * @return
+     */
+    public static boolean downloadFile(FTPClient ftpClient, String remoteFilePath, File localFile) {
+        try {
+            return retrieveFile(ftpClient, remoteFilePath, localFile);
+        } catch (IOException e) {
+            log.error("下载文件【{}】失败", remoteFilePath, e);
+            return false;
+        }
+    }
+
+    /**
+     * 下载文件到本地，本地已有部分时用REST从本地文件大小处续传
+     * 网络异常直接抛出，失败时保留服务器的回复码供重试判断
+     *
+     * @param ftpClient
+     * @param remoteFilePath 远程文件绝对路径
+     * @param localFile      本地文件
+     * @return
+     * @throws IOException
+     */
+    static boolean retrieveFile(FTPClient ftpClient, String remoteFilePath, File localFile) throws IOException {
+        String dir = remoteFilePath.substring(0, remoteFilePath.lastIndexOf("/"));
+        String file = remoteFilePath.substring(remoteFilePath.lastIndexOf("/") + 1);
+        ftpClient.enterLocalPassiveMode();
+        ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+        // 判断并设置ftp编码为utf-8或者本地编码
+        setFtpEncoding(ftpClient);
+        changeDirectory(ftpClient, dir);
+
+        long remoteSize = remoteSize(ftpClient, encodeName(ftpClient, file));
+        if (remoteSize < 0) {
+            log.error("远程文件【{}】不存在", remoteFilePath);
+            return false;
+        }
+        long localSize = localFile.exists() ? localFile.length() : 0;
+        FtpChecksum.Algorithm algorithm = verifyAlgorithm(ftpClient);
+        String remoteHash = null;
+        if (algorithm != null) {
+            remoteHash = FtpChecksum.serverHash(ftpClient, encodeName(ftpClient, file), algorithm);
+        }
+        if (localSize == remoteSize) {
+            if (remoteHash == null || remoteHash.equals(FtpChecksum.digestFile(localFile, localSize, algorithm).hex())) {
+                log.info("文件【{}】已下载完成", remoteFilePath);
+                return true;
+            }
+            log.warn("本地文件【{}】和远程文件内容不一致，重新下载", localFile.getName());
+            localSize = 0;
+        }
+        if (localSize > remoteSize) {
+            log.warn("本地文件大于远程文件：{}>{}，重新下载", localSize, remoteSize);
+            localSize = 0;
+        }
+        //续传时已经下载的部分从本地补算摘要
+        FtpChecksum.Digest digest = remoteHash == null ? null : FtpChecksum.digestFile(localFile, localSize, algorithm);
+
+        // 断点续传，从本地文件末尾继续下载
+        long start = System.nanoTime();
+        ftpClient.setRestartOffset(localSize);
+        InputStream in = ftpClient.retrieveFileStream(encodeName(ftpClient, file));
+        if (in == null) {
+            log.error("下载文件【{}】失败：{}", remoteFilePath, ftpClient.getReplyString());
+            recordTransfer(ftpClient, FtpMetrics.OP_DOWNLOAD, 0, start, false);
+            return false;
+        }
+        OutputStream out;
+        try {
+            out = new FileOutputStream(localFile, localSize > 0);
+        } catch (IOException e) {
+            abortTransfer(ftpClient);
+            closeQuietly(in);
+            throw e;
+        }
+        long count;
+        try {
+            count = copy(FtpRateLimiter.throttle(ftpClient, in), out, new byte[bufferSize], digest);
+        } catch (IOException e) {
+            recordError(ftpClient, FtpMetrics.OP_DOWNLOAD, 0, start);
+            abortTransfer(ftpClient);
+            throw e;
+        } finally {
+            closeQuietly(in);
+            out.close();
+        }
+        boolean completed = ftpClient.completePendingCommand();
+        recordTransfer(ftpClient, FtpMetrics.OP_DOWNLOAD, count, start, completed);
+        if (!completed) {
+            log.error("下载文件【{}】未正常结束：{}", remoteFilePath, ftpClient.getReplyString());
+            return false;
+        }
+        if (localFile.length() != remoteSize) {
+            log.error("下载文件【{}】大小不一致：{}/{}", remoteFilePath, localFile.length(), remoteSize);
+            return false;
+        }
+        if (digest != null && !remoteHash.equals(digest.hex())) {
+            log.error("下载文件【{}】校验失败，删除本地文件", remoteFilePath);
+            if (!localFile.delete()) {
+                log.warn("删除本地文件【{}】失败", localFile.getName());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 获取远程文件大小，文件不存在或是目录时返回-1
+     * 依次使用SIZE、MLST单行回复，服务器都不支持时才列出文件获取
+     *
+     * @param ftpClient
+     * @param remotePath 已经转换编码的路径
+     * @return
+     * @throws IOException
+     */
+    static long remoteSize(FTPClient ftpClient, String remotePath) throws IOException {
+        if (ftpClient.hasFeature("SIZE")) {
+            int reply = ftpClient.sendCommand("SIZE", remotePath);
+            if (reply == FTPReply.FILE_STATUS) {
+                return Long.parseLong(ftpClient.getReplyString().substring(4).trim());
+            }
+            if (FTPReply.isNegativePermanent(reply)) {
+                return -1;
+            }
+        }
+        if (ftpClient.hasFeature("MLST")) {
+            FTPFile file = mlst(ftpClient, remotePath);
+            return file != null && file.isFile() ? file.getSize() : -1;
+        }
+        FTPFile[] files = ftpClient.listFiles(remotePath);
+        return files.length == 1 && files[0].isFile() ? files[0].getSize() : -1;
+    }
+
+    /**
+     * 判断远程路径是否存在，支持MLST时文件和目录都能判断，否则只判断文件
+     *
+     * @param ftpClient
+     * @param remotePath 远程绝对路径
+     * @return
+     * @throws IOException
+     */
+    public static boolean exists(FTPClient ftpClient, String remotePath) throws IOException {
+        String path = normalizePath(encodeName(ftpClient, remotePath));
+        Map<String, FTPFile> cached = cachedListing(ftpClient, path);
+        if (cached != null) {
+            return cached.containsKey(baseName(remotePath));
+        }
+        if (ftpClient.hasFeature("MLST")) {
+            return mlst(ftpClient, path) != null;
+        }
+        if (ftpClient.hasFeature("SIZE")) {
+            int reply = ftpClient.sendCommand("SIZE", path);
+            if (reply == FTPReply.FILE_STATUS) {
+                return true;
+            }
+            if (FTPReply.isNegativePermanent(reply)) {
+                return false;
+            }
+        }
+        return ftpClient.listFiles(path).length > 0;
+    }
+
+    /**
+     * 获取远程文件大小，文件不存在返回-1
+     *
+     * @param ftpClient
+     * @param remotePath 远程绝对路径
+     * @return
+     * @throws IOException
+     */
+    public static long size(FTPClient ftpClient, String remotePath) throws IOException {
+        String path = normalizePath(encodeName(ftpClient, remotePath));
+        Map<String, FTPFile> cached = cachedListing(ftpClient, path);
+        if (cached != null) {
+            FTPFile file = cached.get(baseName(remotePath));
+            return file != null && file.isFile() ? file.getSize() : -1;
+        }
+        return remoteSize(ftpClient, path);
+    }
+
+    /**
+     * 获取远程文件最后修改时间(毫秒)，文件不存在或服务器不返回时间时返回-1
+     * 依次使用MLST、MDTM单行回复，服务器都不支持时才列出文件获取
+     *
+     * @param ftpClient
+     * @param remotePath 远程绝对路径
+     * @return
+     * @throws IOException
+     */
+    public static long lastModified(FTPClient ftpClient, String remotePath) throws IOException {
+        String path = normalizePath(encodeName(ftpClient, remotePath));
+        FTPFile file = null;
+        Map<String, FTPFile> cached = cachedListing(ftpClient, path);
+        if (cached != null) {
+            file = cached.get(baseName(remotePath));
+        } else if (ftpClient.hasFeature("MLST")) {
+            file = mlst(ftpClient, path);
+        } else if (ftpClient.hasFeature("MDTM")) {
+            file = ftpClient.mdtmFile(path);
+        } else {
+            FTPFile[] files = ftpClient.listFiles(path);
+            file = files.length == 1 ? files[0] : null;
+        }
+        return file == null || file.getTimestamp() == null ? -1 : file.getTimestamp().getTimeInMillis();
+    }
+
+    /**
+     * 发送MLST获取单个路径的信息，路径不存在返回null
+     * 部分服务器事实行前不按RFC 3659加空格，FTPClient.mlistFile会直接报错，这里自己解析
+     *
+     * @param ftpClient
+     * @param path      已经转换编码的路径
+     * @return
+     * @throws IOException
+     */
+    private static FTPFile mlst(FTPClient ftpClient, String path) throws IOException {
+        if (!FTPReply.isPositiveCompletion(ftpClient.sendCommand("MLST", path))) {
+            return null;
+        }
+        String[] replies = ftpClient.getReplyStrings();
+        if (replies.length < 3) {
+            return null;
+        }
+        String entry = replies[1].startsWith(" ") ? replies[1].substring(1) : replies[1];
+        return MLSxEntryParser.parseEntry(entry);
+    }
+
+    /**
+     * 路径的最后一段，没有转换编码，缓存的目录列表按FTPFile.getName()即解码后的文件名保存
+     *
+     * @param remotePath
+     * @return
+     */
+    private static String baseName(String remotePath) {
+        String path = normalizePath(remotePath);
+        return path.substring(path.lastIndexOf("/") + 1);
+    }
+
+    /**
+     * 开启元数据缓存时，获取路径所在目录已缓存的列表，不会为此发送LIST
+     *
+     * @param ftpClient
+     * @param path      已经转换编码的绝对路径
+     * @return 未缓存返回null
+     */
+    private static Map<String, FTPFile> cachedListing(FTPClient ftpClient, String path) {
+        if (!FtpMetadataCache.isEnabled()) {
+            return null;
+        }
+        int index = path.lastIndexOf("/");
+        return FtpMetadataCache.getListing(FtpServerKey.of(ftpClient), index <= 0 ? "/" : path.substring(0, index));
+    }
+
     /**
      * 判断文件是否存在
      *
@@ -281,195 +906,431 @@ public class FtpUtil {
      */
     public static boolean isExsits(String filePath, FTPClient ftpClient) {
         try {
-            String dir = filePath.substring(0, filePath.lastIndexOf("/"));
-            String file = filePath.substring(filePath.lastIndexOf("/") + 1);
-
             ftpClient.enterLocalPassiveMode();
             // 设置文件类型为二进制，与ASCII有区别
             ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
 
             // 判断并设置ftp编码为utf-8或者本地编码
             setFtpEncoding(ftpClient);
-            //cd到根目录
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(dir.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            System.out.println(new String(ftpClient.printWorkingDirectory().getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            FTPFile[] ftpFileArr = ftpClient.listFiles(new String(file.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            System.out.println(ftpFileArr);
-            for (FTPFile ftpFile : ftpFileArr) {
-                if (ftpFileArr.length > 0) {
-                    return true;
-                }
-            }
+            return exists(ftpClient, filePath);
         } catch (Exception e) {
-            log.error("创建文件失败", e);
+            log.error("判断文件【{}】是否存在失败", filePath, e);
             return false;
         }
-        return false;
     }
 
 
     /**
      * 递归创建远程服务器目录
+     * 已确认存在的目录直接用绝对路径CWD一次，不再逐级CWD/MKD
      *
      * @param remoteFilePath 远程服务器文件绝对路径
      * @param ftpClient      FTPClient对象
      * @return 目录创建是否成功
      * @throws IOException
      */
-    private static boolean createDirecroty(String remoteFilePath, FTPClient ftpClient) throws IOException {
+    static boolean createDirecroty(String remoteFilePath, FTPClient ftpClient) throws IOException {
         String directory = remoteFilePath.substring(0, remoteFilePath.lastIndexOf("/") + 1);
-        String dirName = new String(directory.getBytes(LOCAL_CHARSET), SERVER_CHARSET);
+        String dirName = encodeName(ftpClient, directory);
+        String absoluteDir = normalizePath(dirName);
+        FtpServerKey key = FtpServerKey.of(ftpClient);
+        if (FtpDirectoryCache.contains(key, absoluteDir)) {
+            if (changeEncodedDirectory(ftpClient, absoluteDir)) {
+                return true;
+            }
+            //目录可能已被其他程序删除
+            FtpDirectoryCache.invalidate(key, absoluteDir);
+        }
         //cd到根目录
         ftpClient.changeWorkingDirectory("/");
         String[] dirs = dirName.split("/");
+        StringBuilder current = new StringBuilder();
         for (String dir : dirs) {
             if (null == dir || "".equals(dir)) {
                 continue;//跳出本地循环，进入下一次循环
             }
-            if (!ftpClient.changeWorkingDirectory(dir)) {
-                if (ftpClient.makeDirectory(dir)) {
-                    ftpClient.changeWorkingDirectory(dir);
-                }
+            current.append('/').append(dir);
+            if (!ftpClient.changeWorkingDirectory(dir)) {
+                if (ftpClient.makeDirectory(dir)) {
+                    FtpMetadataCache.invalidate(key, current.toString());
+                }
+                //MKD失败可能是其他连接刚刚创建了该目录，再CWD一次确认，仍然失败时不能继续在上级目录中创建
+                if (!ftpClient.changeWorkingDirectory(dir)) {
+                    log.error("创建远程目录【{}】失败：{}", directory, ftpClient.getReplyString());
+                    return false;
+                }
+            }
+        }
+        FtpDirectoryCache.put(key, absoluteDir);
+        return true;
+    }
+
+    /**
+     * 切换到指定目录，连接已经在该目录下时不发送CWD
+     *
+     * @param ftpClient
+     * @param dir       远程目录，不以/开头时按根目录下的路径处理
+     * @return
+     * @throws IOException
+     */
+    static boolean changeDirectory(FTPClient ftpClient, String dir) throws IOException {
+        return changeEncodedDirectory(ftpClient, normalizePath(encodeName(ftpClient, dir)));
+    }
+
+    /**
+     * 切换到已经转换编码的绝对路径，连接已经在该目录下时不发送CWD
+     * 切换失败时回到根目录，和原来先CWD到根目录的行为保持一致
+     *
+     * @param ftpClient
+     * @param absoluteDir
+     * @return
+     * @throws IOException
+     */
+    private static boolean changeEncodedDirectory(FTPClient ftpClient, String absoluteDir) throws IOException {
+        if (ftpClient instanceof FtpConnection && absoluteDir.equals(((FtpConnection) ftpClient).getWorkingDirectory())) {
+            return true;
+        }
+        if (ftpClient.changeWorkingDirectory(absoluteDir)) {
+            return true;
+        }
+        ftpClient.changeWorkingDirectory("/");
+        return false;
+    }
+
+    /**
+     * 获取目录列表，开启元数据缓存时优先从缓存读取，目录不存在时返回空
+     *
+     * @param ftpClient
+     * @param dir       目录绝对路径
+     * @return 文件名 -> 文件
+     * @throws IOException
+     */
+    static Map<String, FTPFile> listDirectory(FTPClient ftpClient, String dir) throws IOException {
+        FtpServerKey key = FtpServerKey.of(ftpClient);
+        String absoluteDir = normalizePath(encodeName(ftpClient, dir));
+        Map<String, FTPFile> files = FtpMetadataCache.getListing(key, absoluteDir);
+        if (files != null) {
+            return files;
+        }
+        files = new LinkedHashMap<>();
+        if (!changeEncodedDirectory(ftpClient, absoluteDir)) {
+            return files;
+        }
+        FtpFileIterator iterator = FtpFileIterator.open(ftpClient, null);
+        try {
+            while (iterator.hasNext()) {
+                FTPFile file = iterator.next();
+                files.put(file.getName(), file);
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage(), e.getCause());
+        } finally {
+            iterator.close();
+        }
+        FtpMetadataCache.putListing(key, absoluteDir, files);
+        return files;
+    }
+
+    /**
+     * 清除路径相关的元数据缓存
+     *
+     * @param ftpClient
+     * @param path      远程绝对路径
+     * @throws UnsupportedEncodingException
+     */
+    static void invalidateMetadata(FTPClient ftpClient, String path) throws UnsupportedEncodingException {
+        if (FtpMetadataCache.isEnabled()) {
+            FtpMetadataCache.invalidate(FtpServerKey.of(ftpClient), normalizePath(encodeName(ftpClient, path)));
+        }
+    }
+
+    /**
+     * 清除相对当前目录的路径的元数据缓存，当前目录未知时清空该服务器的缓存
+     *
+     * @param ftpClient
+     * @param encodedName 已经转换编码的相对路径
+     */
+    private static void invalidateRelative(FTPClient ftpClient, String encodedName) {
+        if (!FtpMetadataCache.isEnabled()) {
+            return;
+        }
+        FtpServerKey key = FtpServerKey.of(ftpClient);
+        String cwd = ftpClient instanceof FtpConnection ? ((FtpConnection) ftpClient).getWorkingDirectory() : null;
+        if (cwd == null) {
+            FtpMetadataCache.invalidateAll(key);
+        } else {
+            FtpMetadataCache.invalidate(key, normalizePath(("/".equals(cwd) ? "" : cwd) + "/" + encodedName));
+        }
+    }
+
+    /**
+     * 路径格式化为以/开头、不以/结尾的绝对路径
+     *
+     * @param dir
+     * @return
+     */
+    static String normalizePath(String dir) {
+        String path = dir.startsWith("/") ? dir : "/" + dir;
+        while (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * 移动文件
+     * 临时目录只列一次，按文件名索引出需要移动的文件，再按目标目录分组批量移动
+     *
+     * @param ftpClient
+     * @param fileName
+     * @param targetPicPath
+     * @param targetFilePath
+     * @return
+     */
+    public static boolean removeFiles(FTPClient ftpClient, String fileName, String targetPicPath, String targetFilePath, String tempFilePath, boolean isPic) {
+        try {
+            // 设置PassiveMode传输
+            ftpClient.enterLocalPassiveMode();
+            setFtpEncoding(ftpClient);
+
+            //临时文件目录
+            String directory = tempFilePath.substring(0, tempFilePath.lastIndexOf("/") + 1);
+
+            // 创建服务器远程目录
+            if (!createDirecroty(targetPicPath, ftpClient) || !createDirecroty(targetFilePath, ftpClient)) {
+                return false;
+            }
+
+            //文件名 -> 目标目录
+            Map<String, String> targetIndex = new HashMap<>(8);
+            if (isPic) {
+                targetIndex.put(fileName + "." + JPG, targetFilePath);
+                targetIndex.put(fileName + "." + PNG, targetFilePath);
+                targetIndex.put("thum&" + fileName + "." + PNG, targetPicPath);
+            } else {
+                targetIndex.put(fileName + "." + ZIP, targetFilePath);
+                targetIndex.put(fileName + "." + RAR, targetFilePath);
+                targetIndex.put(fileName + "." + JPG, targetPicPath);
+                targetIndex.put(fileName + "." + PNG, targetPicPath);
+            }
+
+            changeDirectory(ftpClient, directory);
+            FTPFile[] files = ftpClient.listFiles();
+            //目标目录 -> 文件名，文件名按顺序处理
+            Map<String, List<String>> batch = new LinkedHashMap<>(4);
+            List<String> md5List = new ArrayList<>();
+            for (FTPFile file : files) {
+                String name = file.getName();
+                String target = targetIndex.get(name);
+                if (target != null) {
+                    batch.computeIfAbsent(target, k -> new ArrayList<>()).add(name);
+                }
+                if (name.contains("_")) {
+                    md5List.add(name);
+                }
+            }
+
+            //有md5文件且服务器能计算md5时，移动前校验文件内容
+            Map<String, String> sidecars = FtpChecksum.sidecarMd5(md5List);
+            boolean serverMd5 = !sidecars.isEmpty() && FtpChecksum.supports(ftpClient, FtpChecksum.Algorithm.MD5);
+            for (Map.Entry<String, List<String>> entry : batch.entrySet()) {
+                List<String> nameList = entry.getValue();
+                Collections.sort(nameList);
+                for (String name : nameList) {
+                    String expectedMd5 = serverMd5 ? FtpChecksum.expectedMd5(sidecars, name) : null;
+                    if (expectedMd5 != null) {
+                        String remoteHash = FtpChecksum.serverHash(ftpClient, normalizePath(encodeName(ftpClient, directory + name)), FtpChecksum.Algorithm.MD5);
+                        if (remoteHash != null && !remoteHash.equals(expectedMd5)) {
+                            log.error("文件【{}】和md5文件不一致：{}/{}", name, remoteHash, expectedMd5);
+                            return false;
+                        }
+                    }
+                    boolean s = moveFile(ftpClient, directory + name, entry.getKey());
+                    if (!s) {
+                        return false;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("移动文件出现异常：", e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 移动文件，同一服务器上直接RNFR/RNTO，不传输数据
+     * 重命名失败时(如跨文件系统)复制文件并校验大小后删除源文件
+     *
+     * @param ftpClient
+     * @param sourcePath 源文件绝对路径
+     * @param targetPath 目标目录，取最后一个/之前的部分，和createDirecroty一致
+     * @return
+     * @throws IOException
+     */
+    public static boolean moveFile(FTPClient ftpClient, String sourcePath, String targetPath) throws IOException {
+        String fileName = sourcePath.substring(sourcePath.lastIndexOf("/") + 1);
+        String targetFile = targetPath.substring(0, targetPath.lastIndexOf("/") + 1) + fileName;
+        String from = normalizePath(encodeName(ftpClient, sourcePath));
+        String to = normalizePath(encodeName(ftpClient, targetFile));
+        if (ftpClient.rename(from, to)) {
+            FtpMetadataCache.invalidate(FtpServerKey.of(ftpClient), from);
+            FtpMetadataCache.invalidate(FtpServerKey.of(ftpClient), to);
+            return true;
+        }
+        log.warn("文件【{}】重命名失败：{}，改为复制", sourcePath, ftpClient.getReplyString());
+        if (!copyFile(ftpClient, sourcePath, targetPath)) {
+            return false;
+        }
+        if (!ftpClient.deleteFile(from)) {
+            log.warn("删除源文件【{}】失败：{}", sourcePath, ftpClient.getReplyString());
+        }
+        FtpMetadataCache.invalidate(FtpServerKey.of(ftpClient), from);
+        return true;
+    }
+
+    /**
+     * 复制文件，连接池借出的连接再借一个连接边读边写，否则经本地临时文件中转，复制后校验大小
+     *
+     * @param ftpClient
+     * @param sourcePath 源文件绝对路径
+     * @param targetPath 目标目录，取最后一个/之前的部分，和createDirecroty一致
+     * @return
+     * @throws IOException
+     */
+    public static boolean copyFile(FTPClient ftpClient, String sourcePath, String targetPath) throws IOException {
+        String fileName = sourcePath.substring(sourcePath.lastIndexOf("/") + 1);
+        String targetFile = targetPath.substring(0, targetPath.lastIndexOf("/") + 1) + fileName;
+        String from = normalizePath(encodeName(ftpClient, sourcePath));
+        String to = normalizePath(encodeName(ftpClient, targetFile));
+        ftpClient.enterLocalPassiveMode();
+        // 设置以二进制流的方式传输
+        ftpClient.setFileType(FTPClient.BINARY_FILE_TYPE);
+        long size = remoteSize(ftpClient, from);
+        if (size < 0) {
+            log.error("源文件【{}】不存在", sourcePath);
+            return false;
+        }
+        long start = System.nanoTime();
+        FTPClient target = borrowSibling(ftpClient);
+        try {
+            boolean s;
+            if (target == null) {
+                s = copyBySpool(ftpClient, from, to);
+            } else {
+                target.enterLocalPassiveMode();
+                target.setFileType(FTPClient.BINARY_FILE_TYPE);
+                s = copyByStream(ftpClient, target, from, to);
+            }
+            recordTransfer(ftpClient, FtpMetrics.OP_COPY, s ? size : 0, start, s);
+            if (!s) {
+                log.error("复制文件【{}】失败：{}", sourcePath, ftpClient.getReplyString());
+                return false;
+            }
+        } finally {
+            if (target != null) {
+                returnToPool(target);
+            }
+            FtpMetadataCache.invalidate(FtpServerKey.of(ftpClient), to);
+        }
+        long copied = remoteSize(ftpClient, to);
+        if (copied != size) {
+            log.error("复制后的文件【{}】大小不一致：{}/{}", targetFile, copied, size);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 一个连接读取，另一个连接同时写入
+     *
+     * @param source
+     * @param target
+     * @param from
+     * @param to
+     * @return
+     * @throws IOException
+     */
+    private static boolean copyByStream(FTPClient source, FTPClient target, String from, String to) throws IOException {
+        InputStream in = source.retrieveFileStream(from);
+        if (in == null) {
+            return false;
+        }
+        OutputStream out = null;
+        boolean s;
+        try {
+            out = target.storeFileStream(to);
+            if (out == null) {
+                return false;
+            }
+            copy(FtpRateLimiter.throttle(target, in), out, new byte[bufferSize]);
+        } finally {
+            in.close();
+            s = source.completePendingCommand();
+            if (out != null) {
+                out.close();
+                s = target.completePendingCommand() && s;
             }
         }
-        return true;
+        return s && out != null;
     }
 
     /**
-     * 移动文件
+     * 只有一个连接时，先下载到本地临时文件再上传
      *
      * @param ftpClient
-     * @param fileName
-     * @param targetPicPath
-     * @param targetFilePath
+     * @param from
+     * @param to
      * @return
+     * @throws IOException
      */
-    public static boolean removeFiles(FTPClient ftpClient, String fileName, String targetPicPath, String targetFilePath, String tempFilePath, boolean isPic) {
+    private static boolean copyBySpool(FTPClient ftpClient, String from, String to) throws IOException {
+        File spool = File.createTempFile("ftp-copy", ".tmp");
         try {
-            // 设置PassiveMode传输
-            ftpClient.enterLocalPassiveMode();
-            setFtpEncoding(ftpClient);
-
-            //临时文件目录
-            String directory = tempFilePath.substring(0, tempFilePath.lastIndexOf("/") + 1);
-
-            // 创建服务器远程目录
-            createDirecroty(targetPicPath, ftpClient);
-            createDirecroty(targetFilePath, ftpClient);
-
-            //cd到根目录
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(directory.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-
-            System.out.println(ftpClient.printWorkingDirectory());
-
-            FTPFile[] files = ftpClient.listFiles();
-            List<String> fileNameList = new ArrayList<>();
-            List<String> md5List = new ArrayList<>();
-            for (FTPFile file : files) {
-                if (file.getName().equals(fileName + "." + ZIP)
-                        || file.getName().equals(fileName + "." + RAR)
-                        || file.getName().equals(fileName + "." + JPG)
-                        || file.getName().equals(fileName + "." + PNG)) {
-                    fileNameList.add(file.getName());
-                }
-                if (file.getName().equals("thum&" + fileName + "." + PNG)){
-                    fileNameList.add(file.getName());
-                }
-                if (file.getName().contains("_")) {
-                    md5List.add(file.getName());
-                }
+            OutputStream out = new FileOutputStream(spool);
+            boolean s;
+            try {
+                s = ftpClient.retrieveFile(from, out);
+            } finally {
+                out.close();
             }
-
-            if (!CollectionUtils.isEmpty(fileNameList)) {
-                Collections.sort(fileNameList);
-                for (String name : fileNameList) {
-                    if (isPic){
-                        if (name.equals(fileName + "." + JPG)
-                                || name.equals(fileName + "." + PNG)) {
-                            //cd到根目录
-                            ftpClient.changeWorkingDirectory("/");
-                            ftpClient.changeWorkingDirectory(new String(directory.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-                            boolean s = copyFile(ftpClient, name, targetFilePath);
-                            if (!s) {
-                                return false;
-                            }
-                        }
-
-                        if (name.equals("thum&" + fileName + "." + PNG)) {
-                            //cd到根目录
-                            ftpClient.changeWorkingDirectory("/");
-                            ftpClient.changeWorkingDirectory(new String(directory.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-                            boolean s = copyFile(ftpClient, name, targetPicPath);
-                            if (!s) {
-                                return false;
-                            }
-                        }
-                    }else {
-                        if (name.equals(fileName + "." + ZIP)
-                                || name.equals(fileName + "." + RAR)) {
-                            //cd到根目录
-                            ftpClient.changeWorkingDirectory("/");
-                            ftpClient.changeWorkingDirectory(new String(directory.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-                            boolean s = copyFile(ftpClient, name, targetFilePath);
-                            if (!s) {
-                                return false;
-                            }
-                        }
-
-                        if (name.equals(fileName + "." + JPG)
-                                || name.equals(fileName + "." + PNG)) {
-                            //cd到根目录
-                            ftpClient.changeWorkingDirectory("/");
-                            ftpClient.changeWorkingDirectory(new String(directory.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-                            boolean s = copyFile(ftpClient, name, targetPicPath);
-                            if (!s) {
-                                return false;
-                            }
-                        }
-                    }
-
-                }
+            if (!s) {
+                return false;
+            }
+            InputStream in = FtpRateLimiter.throttle(ftpClient, new FileInputStream(spool));
+            try {
+                return ftpClient.storeFile(to, in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            if (!spool.delete()) {
+                spool.deleteOnExit();
             }
-        } catch (IOException e) {
-            log.error("移动文件出现异常：", e);
-            return false;
         }
-        return true;
     }
 
     /**
-     * 复制文件
+     * 获取远程路径对应的锁
+     *
+     * @param remotePath
+     * @return
+     */
+    static ReentrantLock pathLock(String remotePath) {
+        return PATH_LOCKS[(remotePath.hashCode() & 0x7fffffff) % PATH_LOCKS.length];
+    }
+
+    /**
+     * 获取连接对应的锁，同一连接上的上传/重命名串行执行
      *
      * @param ftpClient
-     * @param fileName
-     * @param targetPath
      * @return
-     * @throws IOException
      */
-    private static boolean copyFile(FTPClient ftpClient, String fileName, String targetPath) throws IOException {
-        InputStream input = null;
-        boolean s;
-        try {
-            input = ftpClient.retrieveFileStream(new String((fileName).getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-//            byte[] bytes = IOUtils.toByteArray(input);
-            //ftp传输结束
-            ftpClient.completePendingCommand();
-            System.out.println(ftpClient.printWorkingDirectory());
-//        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
-            ftpClient.changeWorkingDirectory(targetPath);
-            ftpClient.enterLocalPassiveMode();
-            setFtpEncoding(ftpClient);
-            // 设置以二进制流的方式传输
-            ftpClient.setFileType(FTPClient.BINARY_FILE_TYPE);
-            s = ftpClient.storeFile(new String(fileName.getBytes(LOCAL_CHARSET), SERVER_CHARSET), input);
-        }finally {
-            if (input != null){
-                input.close();
-            }
+    static ReentrantLock clientLock(FTPClient ftpClient) {
+        if (ftpClient instanceof FtpConnection) {
+            return ((FtpConnection) ftpClient).getLock();
         }
-        return s;
+        return CLIENT_LOCKS[(System.identityHashCode(ftpClient) & 0x7fffffff) % CLIENT_LOCKS.length];
     }
 
     /**
@@ -497,16 +1358,37 @@ public class FtpUtil {
      * @param filePath
      * @return
      */
-    public synchronized static boolean renameFile(FTPClient ftpClient, String oldName, String filePath) {
+    public static boolean renameFile(FTPClient ftpClient, String oldName, String filePath) {
+        ReentrantLock pathLock = pathLock(filePath);
+        ReentrantLock clientLock = clientLock(ftpClient);
+        pathLock.lock();
+        try {
+            clientLock.lock();
+            try {
+                return doRenameFile(ftpClient, oldName, filePath);
+            } finally {
+                clientLock.unlock();
+            }
+        } finally {
+            pathLock.unlock();
+        }
+    }
+
+    private static boolean doRenameFile(FTPClient ftpClient, String oldName, String filePath) {
         try {
             String dir = filePath.substring(0, filePath.lastIndexOf("/"));
             String newName = filePath.substring(filePath.lastIndexOf("/") + 1);
             //cd到根目录
             ftpClient.enterLocalPassiveMode();
             setFtpEncoding(ftpClient);
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(dir.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            boolean s = ftpClient.rename(new String(oldName.getBytes(LOCAL_CHARSET), SERVER_CHARSET), newName);
+            changeDirectory(ftpClient, dir);
+            boolean s = ftpClient.rename(encodeName(ftpClient, oldName), newName);
+            if (s) {
+                //重命名的可能是目录
+                FtpDirectoryCache.invalidate(FtpServerKey.of(ftpClient), normalizePath(encodeName(ftpClient, dir + "/" + oldName)));
+                invalidateMetadata(ftpClient, dir + "/" + oldName);
+                invalidateMetadata(ftpClient, filePath);
+            }
             log.info("FTP重命名返回状态：{}, FTPClient状态：{}", s, ftpClient.getStatus());
         } catch (IOException e) {
             log.error("文件重命名异常", e);
@@ -523,88 +1405,380 @@ public class FtpUtil {
     public static List<FTPFile> listRemoteAllFiles(FTPClient ftpClient, String remotePath) throws ClientException {
         //目标路径
         String dir = remotePath.substring(0, remotePath.lastIndexOf("/"));
-        ftpClient.enterLocalPassiveMode();
         List<FTPFile> nameList = new ArrayList<>();
         try {
-            // 设置文件类型为二进制，与ASCII有区别
-            ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-            setFtpEncoding(ftpClient);
-            //cd到根目录
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(dir.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            FTPFile[] files = ftpClient.listFiles();
-            String[] names = ftpClient.listNames();
-            System.out.println(names);
-            for (int i = 0; i < files.length; i++) {
-                nameList.add(files[i]);
+            if (FtpMetadataCache.isEnabled()) {
+                ftpClient.enterLocalPassiveMode();
+                ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+                setFtpEncoding(ftpClient);
+                nameList.addAll(listDirectory(ftpClient, dir).values());
+                return nameList;
+            }
+            FtpFileIterator iterator = iterateRemoteFiles(ftpClient, dir);
+            try {
+                while (iterator.hasNext()) {
+                    nameList.add(iterator.next());
+                }
+            } finally {
+                iterator.close();
             }
             return nameList;
-        } catch (IOException e) {
-            e.printStackTrace();
+        } catch (IOException | IllegalStateException e) {
+            log.error("列出目录【{}】失败", dir, e);
             throw new ClientException("ftp操作异常", e.getMessage());
         }
     }
 
+    /**
+     * 流式遍历目录，优先使用MLSD，边读边解析，适合文件数量很多的目录
+     * 遍历完会自动结束传输，提前结束遍历时必须调用close
+     *
+     * @param ftpClient
+     * @param dirPath   目录绝对路径
+     * @return
+     * @throws IOException
+     */
+    public static FtpFileIterator iterateRemoteFiles(FTPClient ftpClient, String dirPath) throws IOException {
+        ftpClient.enterLocalPassiveMode();
+        // 设置文件类型为二进制，与ASCII有区别
+        ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
+        setFtpEncoding(ftpClient);
+        changeDirectory(ftpClient, dirPath);
+        return FtpFileIterator.open(ftpClient, null);
+    }
+
+    /**
+     * 合并分片文件，先按目录列表校验分片总大小，再逐个分片流式追加到合并文件
+     * 连接池借出的连接会再借一个连接做追加，边读边写；否则分片经本地临时文件中转，内存占用固定
+     *
+     * @param ftpClient
+     * @param remotePath 合并后的文件路径，分片文件在同一目录下
+     * @param nameList   按顺序排列的分片文件名
+     * @param totalSize  文件总大小
+     * @return
+     * @throws IOException
+     */
     public static boolean mergeFiles(FTPClient ftpClient, String remotePath, List<String> nameList, long totalSize) throws IOException {
         //服务器文件目录
         String dir = remotePath.substring(0, remotePath.lastIndexOf("/"));
         //合并文件名称
         String file = remotePath.substring(remotePath.lastIndexOf("/") + 1);
-        //合并文件后缀
-        String fileSuffix = file.substring(file.lastIndexOf(".") + 1);
-        InputStream in = null;
+        FTPClient target = null;
         try {
             ftpClient.enterLocalPassiveMode();
             // 设置文件类型为二进制，与ASCII有区别
             ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-//            // 判断并设置ftp编码为utf-8或者本地编码
-//            setFtpEncoding(ftpClient);
-
-            //cd到根目录
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(dir.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
 
-            List<byte[]> listByte = new ArrayList<>();
-            //将分片文件流读取到集合
-            long size = 0;
-            for (String name : nameList) {
-                log.info("分片文件>>>>>>>>" + name);
-                //读取小文件的输入流
-                in = ftpClient.retrieveFileStream(name);
-                byte[] bytes = IOUtils.toByteArray(in);
-                size = size + bytes.length;
-                //关闭输入流
-                in.close();
-                //ftp传输结束
-                ftpClient.completePendingCommand();
-                listByte.add(bytes);
+            //切换失败时连接回到根目录，不能在根目录下合并
+            if (!changeDirectory(ftpClient, dir)) {
+                log.error("合并文件【{}】失败，无法进入目录【{}】", file, dir);
+                return false;
             }
+
+            //按目录列表中的文件大小校验，不传输任何数据
+            FTPFile[] files = ftpClient.hasFeature("MLST") ? ftpClient.mlistDir() : ftpClient.listFiles();
+            long size = sumRemoteSize(files, nameList);
             if (totalSize != size) {
                 log.error("服务器文件大小【{}】和文件总大小【{}】不一致", size, totalSize);
                 return false;
             }
+            //合并时边传边计算摘要，有md5文件时和md5文件比较，服务器能计算校验值时和服务器比较
+            List<String> names = new ArrayList<>(files.length);
+            for (FTPFile f : files) {
+                if (f != null) {
+                    names.add(f.getName());
+                }
+            }
+            String expectedMd5 = FtpChecksum.expectedMd5(FtpChecksum.sidecarMd5(names), file);
+            FtpChecksum.Algorithm algorithm = expectedMd5 != null ? FtpChecksum.Algorithm.MD5 : verifyAlgorithm(ftpClient);
+            FtpChecksum.Digest digest = algorithm == null ? null : new FtpChecksum.Digest(algorithm);
 
-            //开始合并文件
-            for (byte[] bytes : listByte) {
-                in = new ByteArrayInputStream(bytes);
-                boolean flag = ftpClient.appendFile(new String(file.getBytes(LOCAL_CHARSET), SERVER_CHARSET), in);
-                if (!flag) {
+            long start = System.nanoTime();
+            target = borrowSibling(ftpClient);
+            boolean flag;
+            if (target == null) {
+                flag = mergeBySpool(ftpClient, file, nameList, digest);
+            } else {
+                target.enterLocalPassiveMode();
+                target.setFileType(FTP.BINARY_FILE_TYPE);
+                if (!changeDirectory(target, dir)) {
+                    log.error("合并文件【{}】失败，第二个连接无法进入目录【{}】", file, dir);
                     return false;
                 }
+                flag = mergeByStream(ftpClient, target, file, nameList, digest);
+            }
+            if (flag && digest != null) {
+                flag = verifyMerged(ftpClient, file, digest, expectedMd5);
+            }
+            recordTransfer(ftpClient, FtpMetrics.OP_MERGE, flag ? totalSize : 0, start, flag);
+            invalidateMetadata(ftpClient, remotePath);
+            if (!flag) {
+                return false;
             }
-
         } catch (IOException e) {
             log.error("合并文件发生异常:{}", e.getMessage());
             return false;
-        }finally {
-            if (in != null){
-                in.close();
+        } finally {
+            if (target != null) {
+                returnToPool(target);
             }
         }
         log.info("=============文件合并成功=============");
         return true;
     }
 
+    /**
+     * 校验合并后的文件：和md5文件比较，服务器能计算同一算法的校验值时再和服务器比较
+     *
+     * @param ftpClient
+     * @param file        当前目录下的合并文件名
+     * @param digest      合并时计算的摘要
+     * @param expectedMd5 md5文件中的值，没有时为空
+     * @return
+     * @throws IOException
+     */
+    private static boolean verifyMerged(FTPClient ftpClient, String file, FtpChecksum.Digest digest, String expectedMd5) throws IOException {
+        String localHash = digest.hex();
+        if (expectedMd5 != null && !expectedMd5.equals(localHash)) {
+            log.error("合并文件【{}】和md5文件不一致：{}/{}", file, localHash, expectedMd5);
+            return false;
+        }
+        if (FtpChecksum.supports(ftpClient, digest.getAlgorithm())) {
+            String remoteHash = FtpChecksum.serverHash(ftpClient, encodeName(ftpClient, file), digest.getAlgorithm());
+            if (remoteHash != null && !remoteHash.equals(localHash)) {
+                log.error("合并文件【{}】校验失败：合并时{}，服务器{}", file, localHash, remoteHash);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从当前目录的文件列表中统计分片文件总大小，有分片不存在时返回-1
+     *
+     * @param files    当前目录的文件列表
+     * @param nameList
+     * @return
+     */
+    private static long sumRemoteSize(FTPFile[] files, List<String> nameList) {
+        Map<String, Long> sizeMap = new HashMap<>(files.length * 2);
+        for (FTPFile f : files) {
+            if (f != null) {
+                sizeMap.put(f.getName(), f.getSize());
+            }
+        }
+        long size = 0;
+        for (String name : nameList) {
+            Long s = sizeMap.get(name);
+            if (s == null) {
+                log.error("分片文件【{}】不存在", name);
+                return -1;
+            }
+            size += s;
+        }
+        return size;
+    }
+
+    /**
+     * 一个连接读取分片，另一个连接追加写入，通过固定大小的缓冲区边读边写
+     *
+     * @param source
+     * @param target
+     * @param file
+     * @param nameList
+     * @param digest   为空时不计算摘要
+     * @return
+     * @throws IOException
+     */
+    private static boolean mergeByStream(FTPClient source, FTPClient target, String file, List<String> nameList,
+                                         FtpChecksum.Digest digest) throws IOException {
+        OutputStream out = target.appendFileStream(encodeName(target, file));
+        if (out == null) {
+            log.error("打开合并文件【{}】失败：{}", file, target.getReplyString());
+            return false;
+        }
+        boolean flag = true;
+        byte[] buffer = new byte[bufferSize];
+        try {
+            for (String name : nameList) {
+                log.info("分片文件>>>>>>>>" + name);
+                InputStream in = source.retrieveFileStream(encodeName(source, name));
+                if (in == null) {
+                    flag = false;
+                    break;
+                }
+                try {
+                    copy(FtpRateLimiter.throttle(target, in), out, buffer, digest);
+                } finally {
+                    closeQuietly(in);
+                }
+                //ftp传输结束
+                if (!source.completePendingCommand()) {
+                    flag = false;
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            //两个连接上都可能有未读取的传输结束回复
+            abortTransfer(source);
+            abortTransfer(target);
+            closeQuietly(out);
+            throw e;
+        }
+        out.close();
+        return target.completePendingCommand() && flag;
+    }
+
+    /**
+     * 没有第二个连接时，分片逐个下载到本地临时文件再追加，内存中只有一个缓冲区
+     *
+     * @param ftpClient
+     * @param file
+     * @param nameList
+     * @param digest    为空时不计算摘要
+     * @return
+     * @throws IOException
+     */
+    private static boolean mergeBySpool(FTPClient ftpClient, String file, List<String> nameList,
+                                        FtpChecksum.Digest digest) throws IOException {
+        File spool = File.createTempFile("ftp-merge", ".part");
+        byte[] buffer = new byte[bufferSize];
+        try {
+            for (String name : nameList) {
+                log.info("分片文件>>>>>>>>" + name);
+                InputStream in = ftpClient.retrieveFileStream(encodeName(ftpClient, name));
+                if (in == null) {
+                    return false;
+                }
+                OutputStream out = new FileOutputStream(spool);
+                try {
+                    copy(in, out, buffer, digest);
+                } catch (IOException e) {
+                    abortTransfer(ftpClient);
+                    throw e;
+                } finally {
+                    closeQuietly(in);
+                    out.close();
+                }
+                //ftp传输结束
+                if (!ftpClient.completePendingCommand()) {
+                    return false;
+                }
+                InputStream spoolIn = FtpRateLimiter.throttle(ftpClient, new FileInputStream(spool));
+                try {
+                    if (!ftpClient.appendFile(encodeName(ftpClient, file), spoolIn)) {
+                        return false;
+                    }
+                } catch (IOException e) {
+                    //commons-net在传输中途异常时不读取传输结束的回复
+                    abortTransfer(ftpClient);
+                    throw e;
+                } finally {
+                    spoolIn.close();
+                }
+            }
+        } finally {
+            if (!spool.delete()) {
+                spool.deleteOnExit();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 为连接池借出的连接再借一个同一服务器的连接，不是连接池的连接或借不到时返回null
+     *
+     * @param ftpClient
+     * @return
+     */
+    static FTPClient borrowSibling(FTPClient ftpClient) {
+        if (!isPooled(ftpClient)) {
+            return null;
+        }
+        FtpConnection conn = (FtpConnection) ftpClient;
+        try {
+            return conn.getPool().borrow(conn.getServerKey());
+        } catch (IOException e) {
+            log.warn("获取第二个ftp连接失败，改为单连接处理：{}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 记录一次传输，失败时按回复码记录失败次数
+     *
+     * @param ftpClient
+     * @param operation
+     * @param bytes
+     * @param startNanos
+     * @param success
+     */
+    static void recordTransfer(FTPClient ftpClient, String operation, long bytes, long startNanos, boolean success) {
+        FtpMetricsRecorder recorder = FtpMetrics.getRecorder();
+        if (recorder == FtpMetricsRecorder.NOOP) {
+            return;
+        }
+        FtpServerKey key = FtpServerKey.of(ftpClient);
+        recorder.recordTransfer(key, operation, bytes, System.nanoTime() - startNanos, success);
+        if (!success) {
+            recorder.recordFailure(key, operation, ftpClient.getReplyCode());
+        }
+    }
+
+    /**
+     * 记录一次因异常失败的传输，没有回复码
+     *
+     * @param ftpClient
+     * @param operation
+     * @param bytes
+     * @param startNanos
+     */
+    static void recordError(FTPClient ftpClient, String operation, long bytes, long startNanos) {
+        FtpMetricsRecorder recorder = FtpMetrics.getRecorder();
+        if (recorder == FtpMetricsRecorder.NOOP) {
+            return;
+        }
+        FtpServerKey key = FtpServerKey.of(ftpClient);
+        recorder.recordTransfer(key, operation, bytes, System.nanoTime() - startNanos, false);
+        recorder.recordFailure(key, operation, 0);
+    }
+
+    /**
+     * 使用给定的缓冲区复制流
+     *
+     * @param in
+     * @param out
+     * @param buffer
+     * @return 复制的字节数
+     * @throws IOException
+     */
+    static long copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        return copy(in, out, buffer, null);
+    }
+
+    /**
+     * 使用给定的缓冲区复制流，同时计算摘要
+     *
+     * @param in
+     * @param out
+     * @param buffer
+     * @param digest 为空时不计算
+     * @return 复制的字节数
+     * @throws IOException
+     */
+    static long copy(InputStream in, OutputStream out, byte[] buffer, FtpChecksum.Digest digest) throws IOException {
+        long count = 0;
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+            if (digest != null) {
+                digest.update(buffer, 0, n);
+            }
+            count += n;
+        }
+        return count;
+    }
+
     /**
      * 删除文件
      *
@@ -614,16 +1788,12 @@ public class FtpUtil {
      */
     public static boolean deleteRemoteFile(FTPClient ftpClient, String filePath) {
         try {
-            String dir = filePath.substring(0, filePath.lastIndexOf("/"));
-            String file = filePath.substring(filePath.lastIndexOf("/") + 1);
-
-            //cd 到根目录
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(dir.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            boolean s = ftpClient.deleteFile(new String(file.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
+            //DELE直接使用绝对路径，不需要CWD
+            boolean s = ftpClient.deleteFile(normalizePath(encodeName(ftpClient, filePath)));
             if (!s) {
                 return false;
             }
+            invalidateMetadata(ftpClient, filePath);
         } catch (IOException e) {
             log.error("文件删除失败", e);
             return false;
@@ -639,16 +1809,15 @@ public class FtpUtil {
      * @return
      */
     public static boolean deleteRemoteDir(FTPClient ftpClient, String dirPath) {
-        String parentDir = dirPath.substring(0, dirPath.lastIndexOf("/"));
-        String childDir = dirPath.substring(dirPath.lastIndexOf("/") + 1);
         try {
-            //cd 到根目录
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(parentDir.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            boolean s = ftpClient.removeDirectory(new String(childDir.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
+            //RMD直接使用绝对路径，不需要CWD
+            String absoluteDir = normalizePath(encodeName(ftpClient, dirPath));
+            boolean s = ftpClient.removeDirectory(absoluteDir);
             if (!s) {
                 return false;
             }
+            FtpDirectoryCache.invalidate(FtpServerKey.of(ftpClient), absoluteDir);
+            FtpMetadataCache.invalidate(FtpServerKey.of(ftpClient), absoluteDir);
         } catch (IOException e) {
             log.error("目录删除失败", e);
             return false;
@@ -671,11 +1840,7 @@ public class FtpUtil {
         ftpClient.enterLocalPassiveMode();
         try {
             setFtpEncoding(ftpClient);
-            //cd到根目录
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(dir.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            FTPFile[] files = ftpClient.listFiles();
-            for (FTPFile file : files) {
+            for (FTPFile file : listDirectory(ftpClient, dir).values()) {
                 String tar = file.getName().substring(0, file.getName().lastIndexOf("."));
                 if (tar.equals(targetName)) {
                     return file;
@@ -700,9 +1865,9 @@ public class FtpUtil {
         try {
             setFtpEncoding(ftpClient);
             //cd到根目录
-            ftpClient.changeWorkingDirectory("/");
-            InputStream inputStream = ftpClient.retrieveFileStream(new String(filePath.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            return inputStream;
+            changeDirectory(ftpClient, "/");
+            InputStream inputStream = ftpClient.retrieveFileStream(encodeName(ftpClient, filePath));
+            return inputStream == null ? null : FtpRateLimiter.throttle(ftpClient, inputStream);
         }catch (Exception e){
             log.error("获取文件流出现异常：{}", e);
             return null;
@@ -718,12 +1883,10 @@ public class FtpUtil {
         try {
             setFtpEncoding(ftpClient);
             ftpClient.enterLocalPassiveMode();
-            ftpClient.changeWorkingDirectory("/");
-            ftpClient.changeWorkingDirectory(new String(remotePath.getBytes(LOCAL_CHARSET), SERVER_CHARSET));
-            FTPFile[] files = ftpClient.listFiles();
+            Collection<FTPFile> files = listDirectory(ftpClient, remotePath).values();
             List<String> nameList = null;
-            if (files.length > 0) {
-                nameList = Arrays.stream(files).map(x -> remotePath + "/" + x.getName()).collect(Collectors.toList());
+            if (files.size() > 0) {
+                nameList = files.stream().map(x -> remotePath + "/" + x.getName()).collect(Collectors.toList());
             }
             return nameList;
         } catch (IOException e) {
@@ -736,6 +1899,15 @@ public class FtpUtil {
      * 删除指定路径下所有文件和文件夹
      */
     public static boolean deleteAll(FTPClient ftpClient, List<String> dirList, List<String> fileList) {
+        int total = (dirList == null ? 0 : dirList.size()) + (fileList == null ? 0 : fileList.size());
+        if (isPooled(ftpClient) && total >= FtpBulkDeleter.PARALLEL_THRESHOLD) {
+            //数量多时用连接池的多个连接并行删除，目录从深到浅删除
+            FtpConnection conn = (FtpConnection) ftpClient;
+            FtpBulkDeleter.DeleteResult result = FtpBulkDeleter.delete(conn.getPool(), conn.getServerKey(), ftpClient,
+                    dirList, fileList, FtpBulkDeleter.DEFAULT_PARALLELISM);
+            result.getFailures().forEach((path, reason) -> log.warn("删除【{}】失败：{}", path, reason));
+            return true;
+        }
         try {
             ftpClient.enterLocalActiveMode();
             setFtpEncoding(ftpClient);
@@ -759,4 +1931,37 @@ public class FtpUtil {
             return false;
         }
     }
+
+    /**
+     * 统计读取字节数的输入流
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
 }
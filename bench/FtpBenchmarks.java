@@ -0,0 +1,363 @@
+package com.ray.qjc.common.utils;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.ftpserver.ConnectionConfigFactory;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * @ClassName FtpBenchmarks
+ * @Description FtpUtil传输路径的JMH基准测试，在本机回环地址上启动进程内的Apache FtpServer，
+ * 按文件大小、文件数和线程数组合测试上传、续传、下载、合并、移动、列目录和批量删除，
+ * 并对比零拷贝上传和改造前1KB缓冲区的复制循环，运行方法见README.md
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FtpBenchmarks {
+    private static final String USER = "bench";
+    private static final String PASSWORD = "bench";
+
+    //单个文件大小(字节)
+    @Param({"4096", "1048576", "16777216"})
+    public int fileSize;
+
+    //合并的分片数、移动/列目录/删除的文件数
+    @Param({"1", "16", "256"})
+    public int fileCount;
+
+    private final AtomicInteger threadIndex = new AtomicInteger();
+    private Path root;
+    private File localFile;
+    private FtpServer server;
+    private FtpClientPool pool;
+    private FtpServerKey key;
+
+    @Setup(Level.Trial)
+    public void startServer() throws IOException, FtpException {
+        root = Files.createTempDirectory("ftp-bench");
+        localFile = File.createTempFile("ftp-bench", ".bin");
+        byte[] data = new byte[fileSize];
+        new Random(fileSize).nextBytes(data);
+        Files.write(localFile.toPath(), data);
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        FtpServerFactory serverFactory = new FtpServerFactory();
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress("127.0.0.1");
+        listenerFactory.setPort(port);
+        serverFactory.addListener("default", listenerFactory.createListener());
+        //默认最多10个登录，多线程时不够
+        ConnectionConfigFactory connectionConfig = new ConnectionConfigFactory();
+        connectionConfig.setMaxLogins(0);
+        connectionConfig.setMaxThreads(0);
+        serverFactory.setConnectionConfig(connectionConfig.createConnectionConfig());
+        BaseUser user = new BaseUser();
+        user.setName(USER);
+        user.setPassword(PASSWORD);
+        user.setHomeDirectory(root.toString());
+        List<Authority> authorities = new ArrayList<>();
+        authorities.add(new WritePermission());
+        authorities.add(new ConcurrentLoginPermission(0, 0));
+        user.setAuthorities(authorities);
+        serverFactory.getUserManager().save(user);
+        server = serverFactory.createServer();
+        server.start();
+
+        //每个线程一个连接，合并时还要借第二个连接
+        FtpPoolConfig config = new FtpPoolConfig();
+        config.setMaxActivePerKey(256);
+        config.setMaxIdlePerKey(256);
+        pool = new FtpClientPool(config);
+        key = new FtpServerKey("127.0.0.1", port, USER, PASSWORD);
+        Files.createDirectories(root.resolve("src"));
+        Files.copy(localFile.toPath(), root.resolve("src/data.bin"));
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() throws IOException {
+        pool.close();
+        server.stop();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+        localFile.delete();
+    }
+
+    /**
+     * 每个线程独占一个连接和一个远程目录
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        FtpConnection conn;
+        //远程目录，如 /t3
+        String dir;
+        //服务器上对应的本地目录
+        Path serverDir;
+        File downloadFile;
+        List<String> names;
+        int seq;
+
+        @Setup(Level.Trial)
+        public void borrow(FtpBenchmarks bench) throws IOException {
+            conn = bench.pool.borrow(bench.key);
+            dir = "/t" + bench.threadIndex.incrementAndGet();
+            serverDir = bench.root.resolve(dir.substring(1));
+            Files.createDirectories(serverDir);
+            downloadFile = File.createTempFile("ftp-bench-download", ".bin");
+            names = new ArrayList<>(bench.fileCount);
+            for (int i = 0; i < bench.fileCount; i++) {
+                names.add("part" + i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void release(FtpBenchmarks bench) {
+            bench.pool.release(conn);
+            downloadFile.delete();
+        }
+    }
+
+    /**
+     * 续传：每次调用前服务器上已有前一半
+     */
+    @State(Scope.Thread)
+    public static class Resume {
+        @Setup(Level.Invocation)
+        public void prepare(FtpBenchmarks bench, Client client) throws IOException {
+            copyPrefix(bench.localFile, client.serverDir.resolve("resume.bin"), bench.fileSize / 2);
+        }
+    }
+
+    /**
+     * 下载：每次调用前删除本地文件，否则会按已下载完成直接返回
+     */
+    @State(Scope.Thread)
+    public static class Download {
+        @Setup(Level.Invocation)
+        public void prepare(Client client) {
+            client.downloadFile.delete();
+        }
+    }
+
+    /**
+     * 合并：每次调用前准备fileCount个分片，合并后的文件不存在
+     */
+    @State(Scope.Thread)
+    public static class Merge {
+        long totalSize;
+
+        @Setup(Level.Invocation)
+        public void prepare(FtpBenchmarks bench, Client client) throws IOException {
+            Path dir = recreate(client.serverDir.resolve("merge"));
+            int partSize = Math.max(bench.fileSize / bench.fileCount, 1);
+            for (String name : client.names) {
+                copyPrefix(bench.localFile, dir.resolve(name), partSize);
+            }
+            totalSize = (long) partSize * bench.fileCount;
+        }
+    }
+
+    /**
+     * 移动：每次调用前临时目录中有zip、rar、jpg、png四个文件
+     */
+    @State(Scope.Thread)
+    public static class Move {
+        @Setup(Level.Invocation)
+        public void prepare(FtpBenchmarks bench, Client client) throws IOException {
+            recreate(client.serverDir.resolve("pic"));
+            recreate(client.serverDir.resolve("file"));
+            Path dir = recreate(client.serverDir.resolve("tmp"));
+            for (String ext : Arrays.asList(FtpUtil.ZIP, FtpUtil.RAR, FtpUtil.JPG, FtpUtil.PNG)) {
+                copyPrefix(bench.localFile, dir.resolve("f." + ext), bench.fileSize);
+            }
+        }
+    }
+
+    /**
+     * 删除：每次调用前准备fileCount个空文件
+     */
+    @State(Scope.Thread)
+    public static class Delete {
+        List<String> paths;
+
+        @Setup(Level.Invocation)
+        public void prepare(Client client) throws IOException {
+            Path dir = recreate(client.serverDir.resolve("del"));
+            paths = new ArrayList<>(client.names.size());
+            for (String name : client.names) {
+                Files.createFile(dir.resolve(name));
+                paths.add(client.dir + "/del/" + name);
+            }
+        }
+    }
+
+    /**
+     * 零拷贝对比：关闭传输后校验，只比较本地文件写到数据连接的方式；每次调用前删除远程文件，APPE从头写入
+     */
+    @State(Scope.Thread)
+    public static class Copy {
+        @Setup(Level.Trial)
+        public void prepare(Client client) throws IOException {
+            FtpUtil.setVerifyTransfers(false);
+            client.conn.enterLocalPassiveMode();
+            client.conn.setFileType(FTP.BINARY_FILE_TYPE);
+            client.conn.changeWorkingDirectory(client.dir);
+        }
+
+        @Setup(Level.Invocation)
+        public void clean(Client client) throws IOException {
+            Files.deleteIfExists(client.serverDir.resolve("copy.bin"));
+        }
+
+        @TearDown(Level.Trial)
+        public void restore() {
+            FtpUtil.setVerifyTransfers(true);
+        }
+    }
+
+    /**
+     * 列目录用的目录，fileCount个文件，整轮测试只准备一次
+     */
+    @State(Scope.Thread)
+    public static class Listing {
+        @Setup(Level.Trial)
+        public void prepare(FtpBenchmarks bench, Client client) throws IOException {
+            Path dir = client.serverDir.getParent().resolve(client.serverDir.getFileName() + "-list");
+            Files.createDirectories(dir);
+            for (String name : client.names) {
+                Files.write(dir.resolve(name), new byte[16]);
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean uploadStream(FtpBenchmarks bench, Client client) throws IOException {
+        String name = "up" + (client.seq++ & 15) + ".bin";
+        return FtpUtil.uploadFile(new FileInputStream(bench.localFile), client.conn, name, client.dir + "/" + name);
+    }
+
+    @Benchmark
+    public Object uploadResume(FtpBenchmarks bench, Client client, Resume resume) throws Exception {
+        return FtpUtil.upload(client.conn, bench.localFile, client.dir + "/resume.bin");
+    }
+
+    @Benchmark
+    public boolean downloadFile(Client client, Download download) {
+        return FtpUtil.downloadFile(client.conn, "/src/data.bin", client.downloadFile);
+    }
+
+    @Benchmark
+    public boolean mergeFiles(Client client, Merge merge) throws IOException {
+        return FtpUtil.mergeFiles(client.conn, client.dir + "/merge/merged.bin", client.names, merge.totalSize);
+    }
+
+    @Benchmark
+    public boolean removeFiles(Client client, Move move) {
+        return FtpUtil.removeFiles(client.conn, "f", client.dir + "/pic/", client.dir + "/file/",
+                client.dir + "/tmp/", false);
+    }
+
+    @Benchmark
+    public boolean uploadZeroCopy(FtpBenchmarks bench, Client client, Copy copy) throws IOException {
+        //FtpConnection的被动模式数据连接带有SocketChannel，appendFile用FileChannel.transferTo发送
+        return FtpUtil.appendFile("copy.bin", bench.localFile, client.conn, 0);
+    }
+
+    @Benchmark
+    public boolean uploadCopyLoop(FtpBenchmarks bench, Client client, Copy copy) throws IOException {
+        //改造前的写法：RandomAccessFile每次读1KB，写到数据连接的输出流
+        OutputStream out = client.conn.appendFileStream("copy.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(bench.localFile, "r")) {
+            byte[] bytes = new byte[1024];
+            int c;
+            while ((c = raf.read(bytes)) != -1) {
+                out.write(bytes, 0, c);
+            }
+            out.flush();
+        } finally {
+            out.close();
+        }
+        return client.conn.completePendingCommand();
+    }
+
+    @Benchmark
+    public Object listRemoteAllFiles(Client client, Listing listing) throws Exception {
+        //取最后一个/之前的部分作为目录
+        return FtpUtil.listRemoteAllFiles(client.conn, client.dir + "-list/");
+    }
+
+    @Benchmark
+    public boolean deleteAll(Client client, Delete delete) {
+        return FtpUtil.deleteAll(client.conn, null, delete.paths);
+    }
+
+    private static void copyPrefix(File source, Path target, long length) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = 0;
+            while (position < length) {
+                position += in.getChannel().transferTo(position, length - position, out);
+            }
+        }
+    }
+
+    /**
+     * 清空服务器上的目录，不存在时创建
+     */
+    private static Path recreate(Path dir) throws IOException {
+        if (Files.exists(dir)) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.filter(path -> !path.equals(dir)).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        return Files.createDirectories(dir);
+    }
+}
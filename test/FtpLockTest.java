@@ -0,0 +1,259 @@
+package com.ray.qjc.common.utils;
+
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @ClassName FtpLockTest
+ * @Description 多线程并发上传、重命名：同一远程路径串行执行，不同路径并行执行，同一连接上的操作串行执行
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public class FtpLockTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 3;
+    private static final int FILE_SIZE = 64 * 1024;
+
+    private Overlap overlap;
+    private FtpTestServer server;
+    private FtpClientPool pool;
+    private ExecutorService executor;
+    private final List<File> localFiles = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        overlap = new Overlap();
+        server = new FtpTestServer(overlap);
+        FtpPoolConfig config = new FtpPoolConfig();
+        config.setMaxActivePerKey(THREADS);
+        config.setMaxIdlePerKey(THREADS);
+        pool = new FtpClientPool(config);
+        executor = Executors.newFixedThreadPool(THREADS);
+        Random random = new Random(1);
+        for (int i = 0; i < THREADS; i++) {
+            byte[] data = new byte[FILE_SIZE];
+            random.nextBytes(data);
+            File file = File.createTempFile("ftp-lock", ".bin");
+            Files.write(file.toPath(), data);
+            localFiles.add(file);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        pool.close();
+        server.stop();
+        for (File file : localFiles) {
+            file.delete();
+        }
+    }
+
+    /**
+     * 同一路径上的上传和重命名互斥，服务器上同一时间最多只有一个命令在写这个路径，最后的文件完整等于某个线程上传的文件
+     */
+    @Test
+    public void samePathIsExclusive() throws Exception {
+        String remote = "/same/data.bin";
+        runConcurrently(i -> {
+            FtpConnection conn = pool.borrow(server.getKey());
+            try {
+                for (int round = 0; round < ROUNDS; round++) {
+                    FtpUtil.upload(conn, localFiles.get(i), remote);
+                    //先传到各自的文件，再重命名覆盖同一路径
+                    String own = "t" + i + ".bin";
+                    FtpUtil.upload(conn, localFiles.get(i), "/same/" + own);
+                    assertTrue(FtpUtil.renameFile(conn, own, remote));
+                }
+            } finally {
+                pool.release(conn);
+            }
+        });
+        assertEquals("同一路径上同时执行的写命令数", 1, overlap.maxPerPath(remote));
+        byte[] result = Files.readAllBytes(server.getRoot().resolve("same/data.bin"));
+        boolean matched = false;
+        for (File file : localFiles) {
+            matched |= Arrays.equals(Files.readAllBytes(file.toPath()), result);
+        }
+        assertTrue("最后的文件应完整等于某个线程上传的文件", matched);
+    }
+
+    /**
+     * 不同路径(不同的分段锁)上的上传可以同时进行
+     */
+    @Test
+    public void differentPathsRunInParallel() throws Exception {
+        List<String> remotes = distinctStripes(THREADS);
+        runConcurrently(i -> {
+            FtpConnection conn = pool.borrow(server.getKey());
+            try {
+                for (int round = 0; round < ROUNDS; round++) {
+                    Files.deleteIfExists(server.getRoot().resolve(remotes.get(i).substring(1)));
+                    FtpUtil.upload(conn, localFiles.get(i), remotes.get(i));
+                }
+            } finally {
+                pool.release(conn);
+            }
+        });
+        assertTrue("不同路径的上传应并行执行，最大并发数：" + overlap.maxTotal(), overlap.maxTotal() > 1);
+        for (int i = 0; i < THREADS; i++) {
+            assertTrue(Arrays.equals(Files.readAllBytes(localFiles.get(i).toPath()),
+                    Files.readAllBytes(server.getRoot().resolve(remotes.get(i).substring(1)))));
+        }
+    }
+
+    /**
+     * 多个线程共用一个连接时，连接锁保证控制连接上的命令和回复不会交错
+     */
+    @Test
+    public void sharedConnectionIsSerialized() throws Exception {
+        List<String> remotes = distinctStripes(THREADS);
+        FtpConnection conn = pool.borrow(server.getKey());
+        try {
+            runConcurrently(i -> {
+                for (int round = 0; round < ROUNDS; round++) {
+                    Files.deleteIfExists(server.getRoot().resolve(remotes.get(i).substring(1)));
+                    FtpUtil.upload(conn, localFiles.get(i), remotes.get(i));
+                    String renamed = remotes.get(i) + ".done";
+                    assertTrue(FtpUtil.renameFile(conn, remotes.get(i).substring(remotes.get(i).lastIndexOf('/') + 1), renamed));
+                    assertTrue(Arrays.equals(Files.readAllBytes(localFiles.get(i).toPath()),
+                            Files.readAllBytes(server.getRoot().resolve(renamed.substring(1)))));
+                    Files.delete(server.getRoot().resolve(renamed.substring(1)));
+                }
+            });
+        } finally {
+            pool.release(conn);
+        }
+        assertEquals("共用连接时同时执行的写命令数", 1, overlap.maxTotal());
+    }
+
+    /**
+     * 选出count个落在不同分段锁上的路径，避免不相关的路径因为同一个分段锁而串行
+     */
+    private static List<String> distinctStripes(int count) {
+        List<String> remotes = new ArrayList<>(count);
+        Set<ReentrantLock> locks = new HashSet<>();
+        for (int i = 0; remotes.size() < count; i++) {
+            String remote = "/par/f" + i + ".bin";
+            if (locks.add(FtpUtil.pathLock(remote))) {
+                remotes.add(remote);
+            }
+        }
+        return remotes;
+    }
+
+    /**
+     * 所有线程同时开始执行，任一线程失败时抛出它的异常
+     */
+    private void runConcurrently(Task task) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<>(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            int index = i;
+            Callable<Void> callable = () -> {
+                start.await();
+                task.run(index);
+                return null;
+            };
+            futures.add(executor.submit(callable));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            try {
+                future.get(60, TimeUnit.SECONDS);
+            } catch (java.util.concurrent.ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+        }
+    }
+
+    private interface Task {
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * 在服务器端统计同时执行的写命令(STOR/APPE/RNTO)：每个路径的最大并发数和总的最大并发数
+     * 命令开始时等待一段时间，让没有加锁的并发操作一定会重叠
+     */
+    private static class Overlap extends DefaultFtplet {
+        private static final Set<String> WRITES = new HashSet<>(Arrays.asList("STOR", "APPE", "RNTO"));
+
+        private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> maxActive = new ConcurrentHashMap<>();
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger maxTotal = new AtomicInteger();
+
+        @Override
+        public FtpletResult beforeCommand(FtpSession session, FtpRequest request) throws FtpException, IOException {
+            if (WRITES.contains(request.getCommand())) {
+                String path = path(session, request);
+                int n = active.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+                maxActive.computeIfAbsent(path, k -> new AtomicInteger()).accumulateAndGet(n, Math::max);
+                maxTotal.accumulateAndGet(total.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return super.beforeCommand(session, request);
+        }
+
+        @Override
+        public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply) throws FtpException, IOException {
+            if (WRITES.contains(request.getCommand())) {
+                active.get(path(session, request)).decrementAndGet();
+                total.decrementAndGet();
+            }
+            return super.afterCommand(session, request, reply);
+        }
+
+        int maxPerPath(String path) {
+            AtomicInteger max = maxActive.get(path);
+            return max == null ? 0 : max.get();
+        }
+
+        int maxTotal() {
+            return maxTotal.get();
+        }
+
+        private static String path(FtpSession session, FtpRequest request) throws FtpException {
+            String name = request.getArgument();
+            if (name.startsWith("/")) {
+                return name;
+            }
+            String dir = session.getFileSystemView().getWorkingDirectory().getAbsolutePath();
+            return ("/".equals(dir) ? "" : dir) + "/" + name;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.ray.qjc.common.utils;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @ClassName FtpRetrierTest
+ * @Description 传输中途断开连接后，重试前要恢复被动模式、传输类型和工作目录
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+public class FtpRetrierTest {
+    private FtpTestServer server;
+    private FtpRetrier retrier;
+    private FtpConnection conn;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FtpTestServer();
+        Files.createDirectories(server.getRoot().resolve("sub"));
+        FtpRetryPolicy policy = new FtpRetryPolicy();
+        policy.setInitialBackoffMillis(10);
+        retrier = new FtpRetrier(policy);
+        conn = retrier.connect(server.getKey());
+        conn.enterLocalPassiveMode();
+        assertTrue(conn.setFileType(FTP.BINARY_FILE_TYPE));
+        assertTrue(conn.changeWorkingDirectory("/sub"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FtpUtil.closeConnect(conn);
+        server.stop();
+    }
+
+    @Test
+    public void retryAfterAbortRestoresSession() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        int[] state = new int[2];
+        String[] workingDirectory = new String[1];
+        retrier.execute(conn, "test", c -> {
+            if (attempts.incrementAndGet() == 1) {
+                //和传输中途失败时一样，先断开连接再抛出异常
+                FtpUtil.abortTransfer(c);
+                throw new SocketException("数据连接中断");
+            }
+            state[0] = c.getDataConnectionMode();
+            state[1] = c.getFileType();
+            workingDirectory[0] = c.getWorkingDirectory();
+            return c.printWorkingDirectory();
+        });
+        assertEquals(2, attempts.get());
+        assertEquals(FTPClient.PASSIVE_LOCAL_DATA_CONNECTION_MODE, state[0]);
+        assertEquals(FTP.BINARY_FILE_TYPE, state[1]);
+        assertEquals("/sub", workingDirectory[0]);
+        assertEquals("/sub", conn.printWorkingDirectory());
+    }
+
+    @Test
+    public void executeOnDisconnectedConnectionRestoresSession() throws Exception {
+        FtpUtil.abortTransfer(conn);
+        String pwd = retrier.execute(conn, "test", FTPClient::printWorkingDirectory);
+        assertEquals("/sub", pwd);
+        assertEquals(FTPClient.PASSIVE_LOCAL_DATA_CONNECTION_MODE, conn.getDataConnectionMode());
+        assertEquals(FTP.BINARY_FILE_TYPE, conn.getFileType());
+    }
+}
@@ -0,0 +1,102 @@
+package com.ray.qjc.common.utils;
+
+import org.apache.ftpserver.ConnectionConfigFactory;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.Ftplet;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * @ClassName FtpTestServer
+ * @Description 测试用的进程内Apache FtpServer，监听本机回环地址的随机端口，根目录是临时目录
+ * @Version 1.0
+ * @Since JDK 1.8
+ */
+class FtpTestServer {
+    private static final String USER = "test";
+    private static final String PASSWORD = "test";
+
+    private final Path root;
+    private final FtpServer server;
+    private final FtpServerKey key;
+
+    FtpTestServer() throws IOException, FtpException {
+        this(null);
+    }
+
+    /**
+     * @param ftplet 服务器端拦截命令，用于检查客户端发出的命令，为空表示不拦截
+     */
+    FtpTestServer(Ftplet ftplet) throws IOException, FtpException {
+        root = Files.createTempDirectory("ftp-test");
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        FtpServerFactory serverFactory = new FtpServerFactory();
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setServerAddress("127.0.0.1");
+        listenerFactory.setPort(port);
+        serverFactory.addListener("default", listenerFactory.createListener());
+        //默认最多10个登录，并发测试时不够
+        ConnectionConfigFactory connectionConfig = new ConnectionConfigFactory();
+        connectionConfig.setMaxLogins(0);
+        connectionConfig.setMaxThreads(0);
+        serverFactory.setConnectionConfig(connectionConfig.createConnectionConfig());
+        if (ftplet != null) {
+            //服务器停止时会清空这个map，不能用不可变的map
+            Map<String, Ftplet> ftplets = new HashMap<>();
+            ftplets.put("test", ftplet);
+            serverFactory.setFtplets(ftplets);
+        }
+        BaseUser user = new BaseUser();
+        user.setName(USER);
+        user.setPassword(PASSWORD);
+        user.setHomeDirectory(root.toString());
+        List<Authority> authorities = new ArrayList<>();
+        authorities.add(new WritePermission());
+        authorities.add(new ConcurrentLoginPermission(0, 0));
+        user.setAuthorities(authorities);
+        serverFactory.getUserManager().save(user);
+        server = serverFactory.createServer();
+        server.start();
+        key = new FtpServerKey("127.0.0.1", port, USER, PASSWORD);
+    }
+
+    FtpServerKey getKey() {
+        return key;
+    }
+
+    /**
+     * 服务器根目录，测试直接在这里准备和检查文件
+     *
+     * @return
+     */
+    Path getRoot() {
+        return root;
+    }
+
+    void stop() throws IOException {
+        server.stop();
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}